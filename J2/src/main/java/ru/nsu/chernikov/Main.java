@@ -4,14 +4,20 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 public class Main {
 
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--bench-threads")) {
+            // Платформенные и виртуальные потоки при 10, 1000 и 100000 воркерах
+            ThreadModeBenchmark.run(args.length > 1 ? Integer.parseInt(args[1]) : 5,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 10);
+            return;
+        }
         if (args.length < 2) {
-            System.err.println("Usage: java Main <numThreads> <delayMs>");
+            System.err.println("Usage: java Main <numThreads> <delayMs> [--virtual] [--report[=SECONDS]] [--jmx]");
+            System.err.println("       java Main --bench-threads [seconds] [delayMs]");
             return;
         }
 
@@ -19,14 +25,51 @@ public class Main {
         int numThreads = Integer.parseInt(args[0]);
         int delayMs = Integer.parseInt(args[1]);
 
-        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        // --virtual: по виртуальному потоку на воркера (Java 21+), иначе пул платформенных
+        // --report[=SECONDS]: строка метрик в stderr раз в SECONDS (по умолчанию 2)
+        // --jmx: метрики в MXBean ru.nsu.chernikov:type=SortMetrics
+        boolean virtual = false;
+        int reportSeconds = 0;
+        boolean jmx = false;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--virtual")) {
+                virtual = true;
+            } else if (args[i].equals("--report")) {
+                reportSeconds = 2;
+            } else if (args[i].startsWith("--report=")) {
+                reportSeconds = Integer.parseInt(args[i].substring("--report=".length()));
+            } else if (args[i].equals("--jmx")) {
+                jmx = true;
+            }
+        }
+
+        if (virtual && !WorkerThreads.virtualAvailable()) {
+            System.err.println("--virtual требует Java 21 или новее, запущено на " + System.getProperty("java.version"));
+            return;
+        }
+
+        ExecutorService executor = WorkerThreads.newExecutor(virtual, numThreads);
         MyWorker[] workers = new MyWorker[numThreads];
 
-        System.out.println("Запуск " + numThreads + " потоков с задержкой " + delayMs + "мс");
+        System.out.println("Запуск " + numThreads + (virtual ? " виртуальных" : "") + " потоков с задержкой " + delayMs + "мс");
+
+        SortMetrics metrics = new SortMetrics();
+        if (jmx) {
+            try {
+                metrics.registerMBean();
+            } catch (Exception e) {
+                System.err.println("Не удалось зарегистрировать MXBean: " + e.getMessage());
+            }
+        }
+        if (reportSeconds > 0 || jmx) {
+            // без --report скорости и процентили всё равно нужны JMX, раз в 2 с
+            metrics.startSampling(TimeUnit.SECONDS.toMillis(reportSeconds > 0 ? reportSeconds : 2),
+                    reportSeconds > 0 ? System.err : null);
+        }
 
         // Запускаем воркеры
         for (int i = 0; i < numThreads; i++) {
-            workers[i] = new MyWorker(delayMs, list);
+            workers[i] = new MyWorker(delayMs, list, metrics.newWorker());
             executor.submit(workers[i]);
         }
 
@@ -88,7 +131,9 @@ public class Main {
             totalSteps += workers[i].getSteps();
             totalSwaps += workers[i].getSwaps();
             System.out.println("Поток " + i + ": шагов=" + workers[i].getSteps() +
-                    ", перестановок=" + workers[i].getSwaps());
+                    ", перестановок=" + workers[i].getSwaps() +
+                    ", ожидание замков=" + TimeUnit.NANOSECONDS.toMillis(workers[i].getLockWaitNanos()) + "мс" +
+                    ", удержание=" + TimeUnit.NANOSECONDS.toMillis(workers[i].getLockHoldNanos()) + "мс");
         }
         System.out.println("Всего шагов: " + totalSteps);
         System.out.println("Всего перестановок: " + totalSwaps);
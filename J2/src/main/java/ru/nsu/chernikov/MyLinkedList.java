@@ -1,17 +1,49 @@
 package ru.nsu.chernikov;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.ArrayList;
-import java.util.List;
 
+/**
+ * Связный список строк с сортировкой пузырьком по шагам из нескольких
+ * потоков. Связи между узлами меняет только addFirst, и только в голове –
+ * через CAS, без замков. Шаг сортировки меняет местами значения соседних
+ * узлов, держа замки обоих; список обходится «рука за рукой» (замок
+ * следующего узла берётся раньше, чем отпускается текущий), поэтому
+ * замки берутся только от головы к хвосту, взаимной блокировки нет, а
+ * потоки переставляют пары в разных местах списка одновременно.
+ * <p>
+ * Чтение не блокирует запись: size() – счётчик, а итератор идёт по узлам
+ * без замков и без копии. Итератор слабо согласован: он проходит ровно те
+ * узлы, что были в списке при его создании, но значение, переставленное
+ * сортировкой во время обхода, может встретиться дважды или ни разу.
+ * <p>
+ * Список помнит, что он отсортирован: каждое изменение (добавление или
+ * перестановка) увеличивает счётчик изменений, а проход от головы до
+ * хвоста, за время которого счётчик не изменился, записывает его значение
+ * как «отсортировано при таком счётчике». Любое следующее изменение делает
+ * запись устаревшей без дополнительных действий. Пока сортировать нечего,
+ * воркеры ждут в {@link #awaitUnsorted()}; addFirst будит их, только если
+ * кто-то ждёт, и в остальное время обходится без замков.
+ */
 public class MyLinkedList implements Iterable<String> {
-    private Node head = null;
-    private final ReentrantLock listLock = new ReentrantLock(true);
+    private final AtomicReference<Node> head = new AtomicReference<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong modifications = new AtomicLong();
+    private final AtomicLong sortedAt = new AtomicLong(-1);
+    // Ожидание воркеров, которым нечего сортировать
+    private final ReentrantLock idleLock = new ReentrantLock();
+    private final Condition unsorted = idleLock.newCondition();
+    private final AtomicInteger idleWorkers = new AtomicInteger();
 
     private static class Node {
-        String value;
-        Node next;
+        volatile String value;
+        Node next;  // не меняется после публикации узла в head
+        final ReentrantLock lock = new ReentrantLock();
 
         public Node(String value) {
             this.value = value;
@@ -19,90 +51,175 @@ public class MyLinkedList implements Iterable<String> {
     }
 
     public void addFirst(String value) {
-        listLock.lock();
+        Node newNode = new Node(value);
+        Node first;
+        do {
+            first = head.get();
+            newNode.next = first;
+        } while (!head.compareAndSet(first, newNode));
+        size.incrementAndGet();
+        modifications.incrementAndGet();
+        // Воркер увеличивает idleWorkers раньше, чем проверяет счётчик изменений,
+        // поэтому либо он увидит это изменение, либо мы увидим его здесь
+        if (idleWorkers.get() > 0) {
+            idleLock.lock();
+            try {
+                unsorted.signalAll();
+            } finally {
+                idleLock.unlock();
+            }
+        }
+    }
+
+    /** Отсортирован ли список: с последнего чистого прохода ничего не менялось. */
+    public boolean isSorted() {
+        return sortedAt.get() == modifications.get();
+    }
+
+    /** Ждёт, пока в списке не появится работа для сортировки. */
+    public void awaitUnsorted() throws InterruptedException {
+        idleLock.lock();
+        idleWorkers.incrementAndGet();
         try {
-            Node newNode = new Node(value);
-            newNode.next = head;
-            head = newNode;
+            while (isSorted()) {
+                unsorted.await();
+            }
         } finally {
-            listLock.unlock();
+            idleWorkers.decrementAndGet();
+            idleLock.unlock();
+        }
+    }
+
+    /**
+     * Место, где воркер остановился между шагами сортировки: узел, с которого
+     * продолжить проход, или null – начать с головы. Узлы не удаляются и не
+     * перецепляются (связи меняет только addFirst, и только в голове), так
+     * что сохранённый узел всегда остаётся в списке и проверять его не нужно.
+     * Курсор принадлежит одному воркеру. Он же хранит время ожидания и
+     * удержания замков узлов за последний шаг.
+     */
+    public static final class Cursor {
+        private Node node;
+        private long passStart;   // счётчик изменений в начале текущего прохода
+        private long lockWaitNanos;
+        private long lockHoldNanos;
+
+        /** Сколько последний шаг ждал замки, занятые другими потоками, нс. */
+        long lastLockWaitNanos() {
+            return lockWaitNanos;
+        }
+
+        /** Сколько последний шаг держал замки: от первого взятого до последнего отпущенного, нс. */
+        long lastLockHoldNanos() {
+            return lockHoldNanos;
         }
     }
 
     // Быстрый метод для одного шага сортировки
     public int bubbleSortStep() throws InterruptedException {
-        listLock.lock();
-        try {
-            if (head == null || head.next == null) return 0;
+        return bubbleSortStep(new Cursor());
+    }
 
-            int swapsCount = 0;
-            Node prev = null;
-            Node curr = head;
+    /**
+     * Один шаг сортировки с места, где остановился прошлый шаг этого курсора.
+     * Проход идёт до первой перестановки, после неё курсор остаётся на узле с
+     * большим значением – оттуда проход и продолжится; дойдя до хвоста без
+     * перестановок, курсор возвращается в голову. Шаг стоит O(1) узлов в
+     * среднем за проход, а не O(позиции перестановки). Если за весь проход
+     * от головы никто ничего не изменил, список отмечается отсортированным.
+     */
+    public int bubbleSortStep(Cursor cursor) throws InterruptedException {
+        if (cursor.node == null) {
+            // счётчик читается раньше головы: добавление после него сделает проход нечистым
+            cursor.passStart = modifications.get();
+        }
+        cursor.lockWaitNanos = 0;
+        cursor.lockHoldNanos = 0;
+        Node curr = cursor.node != null ? cursor.node : head.get();
+        if (curr == null) {
+            markSorted(cursor);
+            return 0;
+        }
 
-            while (curr != null && curr.next != null) {
-                Node next = curr.next;
+        int swapsCount = 0;
+        lock(curr, cursor);
+        long held = System.nanoTime();
+        try {
+            Node next;
+            while ((next = curr.next) != null) {
+                lock(next, cursor);
 
                 if (curr.value.compareTo(next.value) > 0) {
-                    // Меняем узлы местами
-                    curr.next = next.next;
-                    next.next = curr;
-
-                    if (prev == null) {
-                        head = next;
-                    } else {
-                        prev.next = next;
-                    }
-
-                    prev = next;
+                    // Меняем значения местами, связи остаются прежними
+                    String value = curr.value;
+                    curr.value = next.value;
+                    next.value = value;
+                    next.lock.unlock();
+                    modifications.incrementAndGet();
                     swapsCount++;
+                    cursor.node = next;
                     break;
-                } else {
-                    prev = curr;
-                    curr = curr.next;
                 }
+                curr.lock.unlock();
+                curr = next;
             }
+        } finally {
+            curr.lock.unlock();
+            // ожидание следующих замков прохода входит и в удержание: текущий замок в это время занят
+            cursor.lockHoldNanos = System.nanoTime() - held;
+        }
+        if (swapsCount == 0) {
+            // дошли до хвоста
+            markSorted(cursor);
+            cursor.node = null;
+        }
 
-            // задержка внутри шага
-            if (swapsCount > 0) {
-                Thread.sleep(1);
-            }
+        // задержка после шага, уже без замков
+        if (swapsCount > 0) {
+            Thread.sleep(1);
+        }
 
-            return swapsCount;
-        } finally {
-            listLock.unlock();
+        return swapsCount;
+    }
+
+    /** Берёт замок узла; время засекается, только если замок занят. */
+    private static void lock(Node node, Cursor cursor) {
+        if (node.lock.tryLock()) return;
+        long start = System.nanoTime();
+        node.lock.lock();
+        cursor.lockWaitNanos += System.nanoTime() - start;
+    }
+
+    private void markSorted(Cursor cursor) {
+        if (modifications.get() == cursor.passStart) {
+            // Изменение после проверки сделает запись устаревшей само
+            sortedAt.set(cursor.passStart);
         }
     }
 
     @Override
     public Iterator<String> iterator() {
-        listLock.lock();
-        try {
-            // копия для безопасного итерирования
-            List<String> copy = new ArrayList<>();
-            Node current = head;
-            while (current != null) {
-                copy.add(current.value);
+        Node first = head.get();
+        return new Iterator<String>() {
+            private Node current = first;
+
+            @Override
+            public boolean hasNext() {
+                return current != null;
+            }
+
+            @Override
+            public String next() {
+                if (current == null) throw new NoSuchElementException();
+                String value = current.value;
                 current = current.next;
+                return value;
             }
-            return copy.iterator();
-        } finally {
-            listLock.unlock();
-        }
+        };
     }
 
     public int size() {
-        listLock.lock();
-        try {
-            int size = 0;
-            Node current = head;
-            while (current != null) {
-                size++;
-                current = current.next;
-            }
-            return size;
-        } finally {
-            listLock.unlock();
-        }
+        return size.get();
     }
 
-}
\ No newline at end of file
+}
@@ -3,22 +3,33 @@ package ru.nsu.chernikov;
 public class MyWorker implements Runnable {
     private final int delayMs;
     private final MyLinkedList list;
-    private long steps = 0;
-    private long swaps = 0;
+    private final MyLinkedList.Cursor cursor = new MyLinkedList.Cursor();
+    // Счётчики читаются из других потоков во время работы (отчёт, JMX)
+    private final WorkerMetrics metrics;
     private volatile boolean running = true;
 
     MyWorker(int delayms, MyLinkedList list) {
+        this(delayms, list, new WorkerMetrics("worker", null));
+    }
+
+    MyWorker(int delayms, MyLinkedList list, WorkerMetrics metrics) {
         this.delayMs = delayms;
         this.list = list;
+        this.metrics = metrics;
     }
 
     public void run() {
         while (running && !Thread.currentThread().isInterrupted()) {
             try {
-                // Делаем только один шаг сортировки
-                int swapsInThisStep = list.bubbleSortStep();
-                steps++;
-                swaps += swapsInThisStep;
+                // Делаем только один шаг сортировки, продолжая с прошлого места
+                int swapsInThisStep = list.bubbleSortStep(cursor);
+                metrics.recordStep(swapsInThisStep, cursor.lastLockWaitNanos(), cursor.lastLockHoldNanos());
+
+                // Сортировать нечего – ждём новых строк, не занимая процессор
+                if (swapsInThisStep == 0 && list.isSorted()) {
+                    list.awaitUnsorted();
+                    continue;
+                }
 
                 // Задержка между шагами
                 Thread.sleep(delayMs);
@@ -27,7 +38,7 @@ public class MyWorker implements Runnable {
                 Thread.currentThread().interrupt();
                 break;
             } catch (Exception e) {
-                steps++;
+                metrics.recordStep(0, 0, 0);
             }
         }
     }
@@ -37,10 +48,20 @@ public class MyWorker implements Runnable {
     }
 
     public long getSteps() {
-        return steps;
+        return metrics.steps.sum();
     }
 
     public long getSwaps() {
-        return swaps;
+        return metrics.swaps.sum();
+    }
+
+    /** Суммарное ожидание занятых замков узлов, нс. */
+    public long getLockWaitNanos() {
+        return metrics.lockWaitNanos.sum();
+    }
+
+    /** Суммарное удержание замков узлов, нс. */
+    public long getLockHoldNanos() {
+        return metrics.lockHoldNanos.sum();
     }
-}
\ No newline at end of file
+}
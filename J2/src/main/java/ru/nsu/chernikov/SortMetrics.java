@@ -0,0 +1,286 @@
+package ru.nsu.chernikov;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Метрики всех воркеров одного списка во время работы. Суммы берутся по
+ * {@link WorkerMetrics}, а ожидание и удержание замков за шаг собираются
+ * в гистограммы по степеням двойки наносекунд, из которых считаются
+ * процентили. Раз в период фоновый поток снимает значения, считает
+ * скорости и процентили за прошедший интервал и, если задан вывод,
+ * печатает строку отчёта. Те же числа доступны через JMX
+ * ({@link SortStatsMXBean}, ru.nsu.chernikov:type=SortMetrics): суммы и
+ * отдельно по каждому воркеру, чтобы был виден воркер, застрявший на замках.
+ */
+final class SortMetrics {
+
+    private static final int BUCKETS = 64;
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+
+    private final List<WorkerMetrics> workers = new ArrayList<>();
+    private final LongAdder[] waitBuckets = newBuckets();
+    private final LongAdder[] holdBuckets = newBuckets();
+    private volatile Interval last = new Interval();
+
+    /** Значения за последний интервал снятия. */
+    private static final class Interval {
+        double stepsPerSecond;
+        double swapsPerSecond;
+        double lockWaitMillisPerSecond;
+        long[] waitPercentiles = new long[PERCENTILES.length];
+        long[] holdPercentiles = new long[PERCENTILES.length];
+    }
+
+    private static LongAdder[] newBuckets() {
+        LongAdder[] buckets = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) buckets[i] = new LongAdder();
+        return buckets;
+    }
+
+    /** Счётчики нового воркера с именем worker-N в порядке создания. */
+    WorkerMetrics newWorker() {
+        synchronized (workers) {
+            WorkerMetrics worker = new WorkerMetrics("worker-" + workers.size(), this);
+            workers.add(worker);
+            return worker;
+        }
+    }
+
+    void recordStep(long waitNanos, long holdNanos) {
+        waitBuckets[bucket(waitNanos)].increment();
+        holdBuckets[bucket(holdNanos)].increment();
+    }
+
+    /** Номер корзины: 0 – ровно 0 нс (замок был свободен), i – от 2^(i-1) до 2^i нс. */
+    private static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    int workerCount() {
+        synchronized (workers) {
+            return workers.size();
+        }
+    }
+
+    /** Суммы по всем воркерам: шаги, перестановки, ожидание и удержание (нс). */
+    long[] totals() {
+        long[] totals = new long[4];
+        synchronized (workers) {
+            for (WorkerMetrics w : workers) {
+                totals[0] += w.steps.sum();
+                totals[1] += w.swaps.sum();
+                totals[2] += w.lockWaitNanos.sum();
+                totals[3] += w.lockHoldNanos.sum();
+            }
+        }
+        return totals;
+    }
+
+    /** Значение metric каждого воркера по имени, в порядке создания воркеров. */
+    Map<String, Long> perWorker(ToLongFunction<WorkerMetrics> metric) {
+        Map<String, Long> map = new LinkedHashMap<>();
+        synchronized (workers) {
+            for (WorkerMetrics w : workers) map.put(w.name, metric.applyAsLong(w));
+        }
+        return map;
+    }
+
+    /**
+     * Запускает фоновое снятие значений раз в periodMillis; out == null –
+     * только для JMX, без печати.
+     */
+    void startSampling(long periodMillis, PrintStream out) {
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sort-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        long[][] previous = {totals(), counts(waitBuckets), counts(holdBuckets), {System.nanoTime()}};
+        sampler.scheduleAtFixedRate(() -> {
+            long[] totals = totals();
+            long[] wait = counts(waitBuckets);
+            long[] hold = counts(holdBuckets);
+            long now = System.nanoTime();
+            double seconds = (now - previous[3][0]) / 1e9;
+
+            Interval interval = new Interval();
+            interval.stepsPerSecond = (totals[0] - previous[0][0]) / seconds;
+            interval.swapsPerSecond = (totals[1] - previous[0][1]) / seconds;
+            interval.lockWaitMillisPerSecond = (totals[2] - previous[0][2]) / 1e6 / seconds;
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                interval.waitPercentiles[i] = percentile(wait, previous[1], PERCENTILES[i]);
+                interval.holdPercentiles[i] = percentile(hold, previous[2], PERCENTILES[i]);
+            }
+            last = interval;
+            previous[0] = totals;
+            previous[1] = wait;
+            previous[2] = hold;
+            previous[3][0] = now;
+
+            if (out != null) {
+                out.printf("[метрики] воркеров %d, шагов/с %.0f, перестановок/с %.0f, ожидание замков %.1f мс/с, "
+                                + "ожидание за шаг p50/p90/p99 ≤ %s/%s/%s мкс, удержание ≤ %s/%s/%s мкс%n",
+                        workerCount(), interval.stepsPerSecond, interval.swapsPerSecond,
+                        interval.lockWaitMillisPerSecond,
+                        micros(interval.waitPercentiles[0]), micros(interval.waitPercentiles[1]),
+                        micros(interval.waitPercentiles[2]), micros(interval.holdPercentiles[0]),
+                        micros(interval.holdPercentiles[1]), micros(interval.holdPercentiles[2]));
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static long[] counts(LongAdder[] buckets) {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) counts[i] = buckets[i].sum();
+        return counts;
+    }
+
+    /** Верхняя граница корзины с q-й долей шагов интервала, нс; -1 – шагов не было. */
+    private static long percentile(long[] now, long[] before, double q) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += now[i] - before[i];
+        if (total == 0) return -1;
+        long target = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += now[i] - before[i];
+            if (seen >= target) return i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : 1L << i;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static String micros(long nanos) {
+        if (nanos < 0) return "-";
+        if (nanos == 0) return "0";
+        return nanos < 1000 ? "<1" : String.valueOf(nanos / 1000);
+    }
+
+    // ---------- JMX ----------
+
+    /** Регистрирует MXBean ru.nsu.chernikov:type=SortMetrics. */
+    void registerMBean() throws Exception {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new SortStats(),
+                new javax.management.ObjectName("ru.nsu.chernikov:type=SortMetrics"));
+    }
+
+    /** Текущие значения метрик для JMX; скорости и процентили – за последний интервал. */
+    public interface SortStatsMXBean {
+        int getWorkers();
+
+        long getSteps();
+
+        long getSwaps();
+
+        long getLockWaitMillis();
+
+        long getLockHoldMillis();
+
+        double getStepsPerSecond();
+
+        double getSwapsPerSecond();
+
+        double getLockWaitMillisPerSecond();
+
+        Map<String, Long> getLockWaitPercentilesNanos();
+
+        Map<String, Long> getLockHoldPercentilesNanos();
+
+        Map<String, Long> getStepsByWorker();
+
+        Map<String, Long> getSwapsByWorker();
+
+        Map<String, Long> getLockWaitMillisByWorker();
+
+        Map<String, Long> getLockHoldMillisByWorker();
+    }
+
+    private final class SortStats implements SortStatsMXBean {
+        @Override
+        public int getWorkers() {
+            return workerCount();
+        }
+
+        @Override
+        public long getSteps() {
+            return totals()[0];
+        }
+
+        @Override
+        public long getSwaps() {
+            return totals()[1];
+        }
+
+        @Override
+        public long getLockWaitMillis() {
+            return totals()[2] / 1_000_000;
+        }
+
+        @Override
+        public long getLockHoldMillis() {
+            return totals()[3] / 1_000_000;
+        }
+
+        @Override
+        public double getStepsPerSecond() {
+            return last.stepsPerSecond;
+        }
+
+        @Override
+        public double getSwapsPerSecond() {
+            return last.swapsPerSecond;
+        }
+
+        @Override
+        public double getLockWaitMillisPerSecond() {
+            return last.lockWaitMillisPerSecond;
+        }
+
+        @Override
+        public Map<String, Long> getLockWaitPercentilesNanos() {
+            return percentileMap(last.waitPercentiles);
+        }
+
+        @Override
+        public Map<String, Long> getLockHoldPercentilesNanos() {
+            return percentileMap(last.holdPercentiles);
+        }
+
+        @Override
+        public Map<String, Long> getStepsByWorker() {
+            return perWorker(w -> w.steps.sum());
+        }
+
+        @Override
+        public Map<String, Long> getSwapsByWorker() {
+            return perWorker(w -> w.swaps.sum());
+        }
+
+        @Override
+        public Map<String, Long> getLockWaitMillisByWorker() {
+            return perWorker(w -> w.lockWaitNanos.sum() / 1_000_000);
+        }
+
+        @Override
+        public Map<String, Long> getLockHoldMillisByWorker() {
+            return perWorker(w -> w.lockHoldNanos.sum() / 1_000_000);
+        }
+
+        private Map<String, Long> percentileMap(long[] values) {
+            Map<String, Long> map = new LinkedHashMap<>();
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                map.put("p" + Math.round(PERCENTILES[i] * 100), values[i]);
+            }
+            return map;
+        }
+    }
+}
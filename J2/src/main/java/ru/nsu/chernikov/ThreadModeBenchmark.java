@@ -0,0 +1,105 @@
+package ru.nsu.chernikov;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение пула платформенных потоков и виртуальных потоков при 10, 1 000
+ * и 100 000 воркеров на одном неотсортированном списке. Для каждого режима
+ * печатает время запуска и остановки воркеров, шаги и перестановки в
+ * секунду и средний период шага одного воркера: при идеальном
+ * планировании он близок к delayMs, а превышение – накладные расходы
+ * планирования и ожидания замков. Воркеры ждут, пока запустятся все
+ * потоки, и только потом начинают сортировать. Режим, который не удалось
+ * запустить (нет виртуальных потоков, ОС не дала столько потоков или
+ * запуск занял дольше минуты), помечается.
+ */
+class ThreadModeBenchmark {
+
+    private static final int[] WORKER_COUNTS = {10, 1_000, 100_000};
+    private static final int LIST_SIZE = 10_000;
+    private static final long STARTUP_LIMIT_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    static void run(int seconds, int delayMs) throws InterruptedException {
+        System.out.println("Режим          воркеров  запуск,мс  шагов/с  перестановок/с  период шага,мс  остановка,мс");
+        for (int workers : WORKER_COUNTS) {
+            measure(false, workers, seconds, delayMs);
+            if (WorkerThreads.virtualAvailable()) {
+                measure(true, workers, seconds, delayMs);
+            } else {
+                System.out.printf("%-14s %9d  недоступно на Java %s%n", "виртуальные", workers,
+                        System.getProperty("java.version"));
+            }
+        }
+    }
+
+    private static void measure(boolean virtual, int numWorkers, int seconds, int delayMs) throws InterruptedException {
+        String mode = virtual ? "виртуальные" : "платформенные";
+        MyLinkedList list = new MyLinkedList();
+        Random random = new Random(42);
+        for (int i = 0; i < LIST_SIZE; i++) {
+            list.addFirst(String.format("%08d", random.nextInt(100_000_000)));
+        }
+
+        // Воркеры начинают сортировать одновременно, когда запущены все потоки
+        CountDownLatch go = new CountDownLatch(1);
+        MyWorker[] workers = new MyWorker[numWorkers];
+        long start = System.nanoTime();
+        ExecutorService executor = WorkerThreads.newExecutor(virtual, numWorkers);
+        int started = 0;
+        String failure = null;
+        try {
+            for (; started < numWorkers; started++) {
+                if (System.nanoTime() - start > STARTUP_LIMIT_NANOS) {
+                    failure = "дольше " + TimeUnit.NANOSECONDS.toSeconds(STARTUP_LIMIT_NANOS) + " с";
+                    break;
+                }
+                MyWorker worker = new MyWorker(delayMs, list);
+                workers[started] = worker;
+                executor.submit(() -> {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    worker.run();
+                });
+            }
+        } catch (OutOfMemoryError e) {
+            // ОС не даёт создать столько платформенных потоков
+            failure = e.getMessage();
+        }
+        if (failure != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(60, TimeUnit.SECONDS);
+            System.out.printf("%-14s %9d  не запустился: создано %d потоков (%s)%n", mode, numWorkers, started, failure);
+            return;
+        }
+        long startup = System.nanoTime() - start;
+
+        long runStart = System.nanoTime();
+        go.countDown();
+        Thread.sleep(seconds * 1000L);
+        for (MyWorker worker : workers) worker.stop();
+        long runNanos = System.nanoTime() - runStart;
+
+        long stopStart = System.nanoTime();
+        executor.shutdownNow();
+        boolean stopped = executor.awaitTermination(60, TimeUnit.SECONDS);
+        long stop = System.nanoTime() - stopStart;
+
+        long steps = 0;
+        long swaps = 0;
+        for (MyWorker worker : workers) {
+            steps += worker.getSteps();
+            swaps += worker.getSwaps();
+        }
+        double runSeconds = runNanos / 1e9;
+        double period = steps == 0 ? Double.NaN : numWorkers * runSeconds * 1000 / steps;
+        System.out.printf("%-14s %9d  %9.0f  %7.0f  %14.0f  %14.1f  %12.0f%s%n", mode, numWorkers,
+                startup / 1e6, steps / runSeconds, swaps / runSeconds, period, stop / 1e6,
+                stopped ? "" : "  (не все потоки завершились)");
+    }
+}
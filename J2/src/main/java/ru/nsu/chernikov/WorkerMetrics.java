@@ -0,0 +1,32 @@
+package ru.nsu.chernikov;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счётчики одного воркера: шаги, перестановки, время ожидания замков узлов
+ * и время их удержания. Пишет только воркер, а читать можно из любого
+ * потока во время работы (отчёт, JMX) – LongAdder не требует синхронизации.
+ * Если воркер входит в {@link SortMetrics}, длительности шагов попадают и в
+ * общие гистограммы для процентилей.
+ */
+final class WorkerMetrics {
+    final LongAdder steps = new LongAdder();
+    final LongAdder swaps = new LongAdder();
+    final LongAdder lockWaitNanos = new LongAdder();
+    final LongAdder lockHoldNanos = new LongAdder();
+    final String name;
+    private final SortMetrics shared;
+
+    WorkerMetrics(String name, SortMetrics shared) {
+        this.name = name;
+        this.shared = shared;
+    }
+
+    void recordStep(int swapsInStep, long waitNanos, long holdNanos) {
+        steps.increment();
+        if (swapsInStep > 0) swaps.add(swapsInStep);
+        lockWaitNanos.add(waitNanos);
+        lockHoldNanos.add(holdNanos);
+        if (shared != null) shared.recordStep(waitNanos, holdNanos);
+    }
+}
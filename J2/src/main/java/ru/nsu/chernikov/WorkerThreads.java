@@ -0,0 +1,41 @@
+package ru.nsu.chernikov;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Потоки для воркеров: пул платформенных потоков или виртуальный поток на
+ * каждого воркера. Виртуальные потоки появились в Java 21; проект
+ * собирается и на более старых JDK, поэтому исполнитель берётся через
+ * отражение, а без поддержки режим просто недоступен.
+ * <p>
+ * Воркер не закрепляет (pin) виртуальный поток на несущем: в MyLinkedList
+ * и MyWorker нет synchronized и нативных вызовов, а ReentrantLock,
+ * Condition.await и Thread.sleep отпускают несущий поток на время ожидания.
+ */
+final class WorkerThreads {
+
+    private WorkerThreads() {
+    }
+
+    static boolean virtualAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    static ExecutorService newExecutor(boolean virtual, int numThreads) {
+        if (!virtual) {
+            return Executors.newFixedThreadPool(numThreads);
+        }
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Виртуальные потоки требуют Java 21 или новее, запущено на "
+                    + System.getProperty("java.version"), e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package ru.nsu.chernikov;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Нагрузочная проверка MyLinkedList: сортировщики без задержки, поток,
+ * добавляющий строки в начало, и поток, постоянно обходящий список,
+ * работают одновременно. Каждый обход должен пройти не меньше узлов, чем
+ * было в списке до его начала, а после остановки в списке должны быть
+ * ровно все добавленные строки, без повторов.
+ */
+class MyLinkedListStressTest {
+
+    private static final int INITIAL_SIZE = 2000;
+    private static final int SECONDS = 2;
+
+    @Test
+    @Timeout(30)
+    void singleSorterKeepsAllStrings() throws InterruptedException {
+        stress(1);
+    }
+
+    @Test
+    @Timeout(30)
+    void concurrentSortersKeepAllStrings() throws InterruptedException {
+        stress(4);
+    }
+
+    private static void stress(int numThreads) throws InterruptedException {
+        MyLinkedList list = new MyLinkedList();
+        Set<String> expected = new HashSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < INITIAL_SIZE; i++) {
+            String value = String.format("%06d-%d", random.nextInt(1_000_000), i);
+            expected.add(value);
+            list.addFirst(value);
+        }
+
+        MyWorker[] workers = new MyWorker[numThreads];
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            workers[i] = new MyWorker(0, list);
+            threads.add(new Thread(workers[i], "sorter-" + i));
+        }
+
+        AtomicInteger added = new AtomicInteger();
+        AtomicInteger snapshots = new AtomicInteger();
+        List<String> errors = new ArrayList<>();
+        Thread adder = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                list.addFirst(String.format("%06d-add%d", (added.get() * 7919) % 1_000_000, added.get()));
+                added.incrementAndGet();
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }, "adder");
+        Thread reader = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                // Обход слабо согласован: значения могут повториться, но узлов
+                // не меньше, чем было до его начала, и ни одного пустого
+                int before = list.size();
+                int count = 0;
+                for (String value : list) {
+                    count++;
+                    if (value == null) {
+                        synchronized (errors) {
+                            errors.add("пустое значение при обходе");
+                        }
+                    }
+                }
+                if (count < before) {
+                    synchronized (errors) {
+                        errors.add("обход дал " + count + " строк, а size() до него – " + before);
+                    }
+                }
+                snapshots.incrementAndGet();
+            }
+        }, "reader");
+        threads.add(adder);
+        threads.add(reader);
+
+        for (Thread t : threads) t.start();
+        Thread.sleep(SECONDS * 1000L);
+        for (MyWorker worker : workers) worker.stop();
+        for (Thread t : threads) t.interrupt();
+        for (Thread t : threads) t.join();
+
+        for (int i = 0; i < added.get(); i++) {
+            expected.add(String.format("%06d-add%d", (i * 7919) % 1_000_000, i));
+        }
+        List<String> actual = new ArrayList<>();
+        for (String value : list) actual.add(value);
+
+        synchronized (errors) {
+            assertEquals(List.of(), errors.subList(0, Math.min(10, errors.size())));
+        }
+        assertTrue(snapshots.get() > 0, "поток обхода не закончил ни одного обхода");
+        assertEquals(actual.size(), new HashSet<>(actual).size(), "в списке есть повторы");
+        assertEquals(expected, new HashSet<>(actual));
+        assertEquals(actual.size(), list.size());
+    }
+}
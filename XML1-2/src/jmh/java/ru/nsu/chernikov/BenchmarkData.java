@@ -0,0 +1,69 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Общие данные бенчмарков: входные файлы из кэша генератора и снимки
+ * фрагментов в двоичном виде, из которых перед каждым вызовом этапа
+ * восстанавливаются свежие объекты (этапы изменяют свои входные данные).
+ */
+final class BenchmarkData {
+
+    static final long SEED = 42;
+
+    private static PrintStream savedErr;
+
+    private BenchmarkData() {
+    }
+
+    /** Каталог кэша входных файлов: -Dbench.dataDir, по умолчанию build/jmh-data. */
+    static File dataDir() {
+        return new File(System.getProperty("bench.dataDir", "build/jmh-data"));
+    }
+
+    static String input(int persons) throws IOException {
+        return DirtyXmlGenerator.cached(dataDir(), persons, SEED).getPath();
+    }
+
+    static String schema() {
+        return System.getProperty("bench.schema", "person.xsd");
+    }
+
+    static byte[] write(Collection<PersonInfo> persons) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes, 1 << 16))) {
+            out.writeInt(persons.size());
+            for (PersonInfo p : persons) p.writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<PersonInfo> read(byte[] data, IdTable ids) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new ByteArrayInputStream(data), 1 << 16))) {
+            int count = in.readInt();
+            List<PersonInfo> persons = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) persons.add(PersonInfo.readFrom(in, ids));
+            return persons;
+        }
+    }
+
+    /** Предупреждения этапов идут в System.err и искажали бы замеры – глушим их. */
+    static synchronized void silenceWarnings() {
+        if (savedErr == null) {
+            savedErr = System.err;
+            System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        }
+    }
+
+    static synchronized void restoreWarnings() {
+        if (savedErr != null) {
+            System.setErr(savedErr);
+            savedErr = null;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package ru.nsu.chernikov;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Генератор «грязного» входного XML для бенчмарков. Каждый человек
+ * описывается одним–тремя фрагментами во всех вариантах, которые понимает
+ * разбор: fullname/first/family, атрибуты name/val/ref/value, опечатка spouce,
+ * дети и сиблинги по текстовому имени, маркеры количества, фрагменты без ID
+ * и без имени, CDATA, комментарии, UNKNOWN/NONE. Фрагменты одного человека
+ * разбросаны по файлу через окно отложенных фрагментов.
+ * <p>
+ * При одинаковых числе людей и зерне файл получается побайтно одинаковым.
+ */
+class DirtyXmlGenerator {
+
+    private static final String[] FIRST = {"Ivan", "Petr", "Anna", "Maria", "Olga", "Sergey", "Nikolay", "Elena"};
+    private static final String[] LAST = {"Petrov", "Ivanov", "Sidorov", "Smirnov", "Kuznetsov"};
+    private static final String[] GENDER = {"male", "female", "M", "F", " Female ", "m"};
+
+    private static final int WINDOW = 1024;   // окно отложенных фрагментов
+
+    private final int persons;
+    private final Random rnd;
+    private final String[] pending = new String[WINDOW];
+    private int pendingCount;
+
+    DirtyXmlGenerator(int persons, long seed) {
+        this.persons = persons;
+        this.rnd = new Random(seed);
+    }
+
+    /** java DirtyXmlGenerator &lt;число людей&gt; &lt;зерно&gt; &lt;выходной.xml&gt; */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Использование: java DirtyXmlGenerator <число людей> <зерно> <выходной.xml>");
+            return;
+        }
+        new DirtyXmlGenerator(Integer.parseInt(args[0]), Long.parseLong(args[1])).write(new File(args[2]));
+    }
+
+    /** Файл с входными данными из кэша; создаётся при первом обращении. */
+    static File cached(File dir, int persons, long seed) throws IOException {
+        File file = new File(dir, "persons-" + persons + "-" + seed + ".xml");
+        if (!file.exists()) {
+            if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Не удалось создать каталог " + dir);
+            File tmp = new File(dir, file.getName() + ".tmp");
+            new DirtyXmlGenerator(persons, seed).write(tmp);
+            if (!tmp.renameTo(file)) throw new IOException("Не удалось переименовать " + tmp);
+        }
+        return file;
+    }
+
+    void write(File file) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<people count=\"" + persons + "\">\n");
+            for (int i = 0; i < persons; i++) {
+                int fragments = 1 + (rnd.nextInt(10) < 3 ? 1 : 0) + (rnd.nextInt(10) == 0 ? 1 : 0);
+                for (int k = 0; k < fragments; k++) {
+                    defer(out, fragment(i));
+                }
+            }
+            for (int k = 0; k < pendingCount; k++) {
+                out.write(pending[k]);
+            }
+            out.write("</people>\n");
+        }
+    }
+
+    /** Кладёт фрагмент в окно; при заполненном окне выводит случайный отложенный. */
+    private void defer(Writer out, String fragment) throws IOException {
+        if (pendingCount < WINDOW) {
+            pending[pendingCount++] = fragment;
+            return;
+        }
+        int k = rnd.nextInt(WINDOW);
+        out.write(pending[k]);
+        pending[k] = fragment;
+    }
+
+    private String fragment(int i) {
+        String id = "P" + i;
+        String first = FIRST[i % FIRST.length];
+        String last = LAST[(i / FIRST.length) % LAST.length] + i;
+        String gender = GENDER[rnd.nextInt(GENDER.length)];
+        StringBuilder sb = new StringBuilder(256);
+        switch (rnd.nextInt(8)) {
+            case 0:
+                sb.append("<person id=\"").append(id).append("\"><fullname><first>").append(first)
+                        .append("</first><family>").append(last).append("</family></fullname><gender value=\"")
+                        .append(gender).append("\"/><children-number value=\"").append(rnd.nextInt(3)).append("\"/></person>");
+                break;
+            case 1:
+                // без ID: только имя, супруг(а) и ребёнок по имени
+                sb.append("<person name=\"").append(first).append(' ').append(last).append("\"><gender>")
+                        .append(gender).append("</gender><spouce>").append(name(other())).append("</spouce><son>")
+                        .append(name(other())).append("</son></person>");
+                break;
+            case 2:
+                sb.append("<person id=\"").append(id).append("\"><firstname value=\"").append(first)
+                        .append("\"/><surname>").append(last).append("</surname><parent val=\"P").append(other())
+                        .append("  P").append(other()).append("\"/><siblings val=\"P").append(other())
+                        .append("\"/><siblings-number value=\"1\"/><brother>").append(name(other()))
+                        .append("</brother></person>");
+                break;
+            case 3:
+                sb.append("<!-- <person id=\"X\"> --><person><id>").append(id).append("</id><husband value=\"P")
+                        .append(other()).append("\"/><daughter id=\"P").append(other()).append("\"/><mother>")
+                        .append(name(other())).append("</mother></person>");
+                break;
+            case 4:
+                // ни ID, ни имени – получит синтетический ID
+                sb.append("<person><gender>").append(gender).append("</gender><wife>UNKNOWN</wife></person>");
+                break;
+            case 5:
+                sb.append("<person id=\"").append(id).append("\"><firstName>").append(first)
+                        .append("</firstName><lastName><![CDATA[").append(last).append("]]></lastName><sister id=\"P")
+                        .append(other()).append("\"/><child ref=\"P").append(other()).append("\"/><father>")
+                        .append(name(other())).append("</father></person>");
+                break;
+            case 6:
+                sb.append("<person id=\"").append(id).append("\"><family-name>").append(last)
+                        .append("</family-name><children count=\"").append(rnd.nextInt(3))
+                        .append("\"><child>").append(name(other())).append("</child></children><spouse ref=\"P")
+                        .append(other()).append("\"/><sibling ref=\"P").append(other())
+                        .append("\"/><father>NONE</father></person>");
+                break;
+            default:
+                // без ID, имя с лишними пробелами, супруг(а) по ID в тексте
+                sb.append("<person><fullname><first> ").append(first).append(" </first><family>")
+                        .append(last).append("</family></fullname><wife>P").append(other())
+                        .append("</wife><sister>").append(name(other())).append("</sister></person>");
+                break;
+        }
+        sb.append('\n');
+        return sb.toString();
+    }
+
+    private int other() {
+        return rnd.nextInt(persons);
+    }
+
+    private static String name(int i) {
+        return FIRST[i % FIRST.length] + " " + LAST[(i / FIRST.length) % LAST.length] + i;
+    }
+}
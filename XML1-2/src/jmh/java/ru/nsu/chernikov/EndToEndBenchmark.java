@@ -0,0 +1,57 @@
+package ru.nsu.chernikov;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Полный запуск PersonDataAggregator.main с разными наборами опций.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int persons;
+
+    /** Опции командной строки через пробел; "-" – без опций. */
+    @Param({"-", "--stream-output", "--engine=mapped --stream-output", "--pipeline --stream-output",
+            "--parallel --engine=mapped --stream-output", "--external-memory --stream-output"})
+    public String options;
+
+    String[] args;
+    File output;
+
+    @Setup(Level.Trial)
+    public void prepare() throws Exception {
+        BenchmarkData.silenceWarnings();
+        output = File.createTempFile("end-to-end-", ".xml");
+        output.deleteOnExit();
+        List<String> list = new ArrayList<>();
+        if (!"-".equals(options)) list.addAll(Arrays.asList(options.split(" ")));
+        list.add(BenchmarkData.input(persons));
+        list.add(output.getPath());
+        list.add(BenchmarkData.schema());
+        args = list.toArray(new String[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        output.delete();
+        BenchmarkData.restoreWarnings();
+    }
+
+    @Benchmark
+    public File aggregate() throws Exception {
+        PersonDataAggregator.main(args);
+        return output;
+    }
+}
@@ -0,0 +1,83 @@
+package ru.nsu.chernikov;
+
+import org.openjdk.jmh.annotations.*;
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Часто вызываемые вспомогательные методы на типичных значениях из входных файлов.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HelperBenchmark {
+
+    private static final String[] NAMES = {
+            "Ivan", "Petrov12", " Anna ", "Maria  Smirnov7", "Olga\tKuznetsov",
+            "Sergey", null, "Elena Ivanova Sidorova", "  ", "Nikolay Petrov3400"
+    };
+
+    private static final String[] VALUES = {
+            "P123456", "P1", "Ivan Petrov12", "P12a", "UNKNOWN", "p77", "P", "P9876543210", "Maria Smirnov7", "NONE"
+    };
+
+    private static final String[] GENDERS = {"male", "F", " Female ", "m", "unknown", "FEMALE", "M", "x"};
+
+    private final PersonInfo[] persons = new PersonInfo[16];
+    private final IdTable ids = new IdTable();
+    private final PersonInfo target = new PersonInfo(ids);
+    private final SyntheticIds syntheticIds = new SyntheticIds(id -> false);
+    private int next;
+
+    @Setup(Level.Trial)
+    public void prepare() {
+        for (int i = 0; i < persons.length; i++) {
+            persons[i] = new PersonInfo(ids);
+            persons[i].firstName = NAMES[i % NAMES.length];
+            persons[i].lastName = NAMES[(i * 7 + 3) % NAMES.length];
+        }
+    }
+
+    /** Следующий неотрицательный номер образца. */
+    private int step() {
+        return next = (next + 1) & Integer.MAX_VALUE;
+    }
+
+    @Benchmark
+    public String getCanonicalName() {
+        PersonInfo p = persons[step() & (persons.length - 1)];
+        p.canonicalName = null;   // без кэша – измеряем само вычисление
+        return p.getCanonicalName();
+    }
+
+    @Benchmark
+    public String getCanonicalNameCached() {
+        return persons[step() & (persons.length - 1)].getCanonicalName();
+    }
+
+    @Benchmark
+    public boolean isLikelyId() {
+        return PersonDataAggregator.isLikelyId(VALUES[step() % VALUES.length]);
+    }
+
+    @Benchmark
+    public PersonInfo parseFullName() {
+        PersonDataAggregator.parseFullName(VALUES[step() % VALUES.length], target);
+        return target;
+    }
+
+    @Benchmark
+    public String normalizeGender() {
+        return PersonDataAggregator.normalizeGender(GENDERS[step() % GENDERS.length]);
+    }
+
+    @Benchmark
+    public String syntheticId() {
+        PersonInfo p = persons[step() & (persons.length - 1)];
+        return syntheticIds.next(p.getCanonicalName(), p);
+    }
+}
@@ -0,0 +1,43 @@
+package ru.nsu.chernikov;
+
+import org.openjdk.jmh.annotations.*;
+import ru.nsu.chernikov.PersonDataAggregator.ParserEngine;
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор входного файла каждым движком, последовательно и параллельно.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int persons;
+
+    @Param({"EVENT", "CURSOR", "MAPPED"})
+    public ParserEngine engine;
+
+    String inputFile;
+
+    @Setup(Level.Trial)
+    public void prepare() throws Exception {
+        inputFile = BenchmarkData.input(persons);
+    }
+
+    @Benchmark
+    public List<PersonInfo> sequential() throws Exception {
+        return PersonDataAggregator.parseInput(inputFile, engine, new IdTable());
+    }
+
+    @Benchmark
+    public List<PersonInfo> parallel() throws Exception {
+        return new ParallelFragmentParser(Runtime.getRuntime().availableProcessors(), engine).parse(inputFile, new IdTable());
+    }
+}
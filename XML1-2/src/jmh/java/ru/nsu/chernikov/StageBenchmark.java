@@ -0,0 +1,121 @@
+package ru.nsu.chernikov;
+
+import org.openjdk.jmh.annotations.*;
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+import ru.nsu.chernikov.PersonDataAggregator.Persons;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отдельные этапы агрегации. Вход каждого этапа готовится один раз на
+ * пробу прогоном предыдущих этапов; этапы, изменяющие вход, получают его
+ * свежую копию перед каждым вызовом (время восстановления не измеряется).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StageBenchmark {
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int persons;
+
+    String inputFile;
+    IdTable ids;                       // таблица ID для этапов после разбора
+    byte[] fragments;                  // после разбора
+    byte[] merged;                     // после объединения
+    Map<String, PersonInfo> resolved;  // после разрешения имён и проверки
+    Persons root;                      // после преобразования в JAXB
+    File output;
+
+    @Setup(Level.Trial)
+    public void prepare() throws Exception {
+        BenchmarkData.silenceWarnings();
+        inputFile = BenchmarkData.input(persons);
+        ids = new IdTable();
+        fragments = BenchmarkData.write(PersonDataAggregator.parseInput(inputFile, ids));
+        Map<String, PersonInfo> map = PersonDataAggregator.mergeFragments(BenchmarkData.read(fragments, ids));
+        merged = BenchmarkData.write(map.values());
+        PersonDataAggregator.resolveNameReferences(map);
+        PersonDataAggregator.validate(map);
+        resolved = map;
+        root = PersonDataAggregator.convertToJAXB(map, ids);
+        output = File.createTempFile("stage-benchmark-", ".xml");
+        output.deleteOnExit();
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        output.delete();
+        BenchmarkData.restoreWarnings();
+    }
+
+    /** Свежие фрагменты для объединения. */
+    @State(Scope.Thread)
+    public static class MergeInput {
+        List<PersonInfo> fragments;
+
+        @Setup(Level.Invocation)
+        public void load(StageBenchmark stage) throws Exception {
+            fragments = BenchmarkData.read(stage.fragments, stage.ids);
+        }
+    }
+
+    /** Свежие объединённые люди для разрешения имён. */
+    @State(Scope.Thread)
+    public static class ResolveInput {
+        Map<String, PersonInfo> persons;
+
+        @Setup(Level.Invocation)
+        public void load(StageBenchmark stage) throws Exception {
+            List<PersonInfo> list = BenchmarkData.read(stage.merged, stage.ids);
+            persons = new HashMap<>(list.size() * 2);
+            for (PersonInfo p : list) persons.put(p.id, p);
+        }
+    }
+
+    @Benchmark
+    public List<PersonInfo> parseInput() throws Exception {
+        return PersonDataAggregator.parseInput(inputFile, new IdTable());
+    }
+
+    @Benchmark
+    public Map<String, PersonInfo> mergeFragments(MergeInput in) {
+        return PersonDataAggregator.mergeFragments(in.fragments);
+    }
+
+    @Benchmark
+    public Map<String, PersonInfo> resolveNameReferences(ResolveInput in) {
+        PersonDataAggregator.resolveNameReferences(in.persons);
+        return in.persons;
+    }
+
+    @Benchmark
+    public Map<String, PersonInfo> validate() {
+        PersonDataAggregator.validate(resolved);
+        return resolved;
+    }
+
+    @Benchmark
+    public Persons convertToJAXB() {
+        return PersonDataAggregator.convertToJAXB(resolved, ids);
+    }
+
+    @Benchmark
+    public File marshalWithValidation() throws Exception {
+        PersonDataAggregator.marshalWithValidation(root, output.getPath(), BenchmarkData.schema());
+        return output;
+    }
+
+    @Benchmark
+    public File streamingWrite() throws Exception {
+        StreamingPersonWriter.write(resolved, ids, output.getPath(), PersonDataAggregator.loadSchema(BenchmarkData.schema()));
+        return output;
+    }
+}
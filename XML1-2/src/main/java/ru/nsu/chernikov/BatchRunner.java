@@ -0,0 +1,215 @@
+package ru.nsu.chernikov;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Пакетный режим: много входных файлов в одном процессе. Контекст JAXB,
+ * скомпилированная схема и фабрики StAX создаются один раз (см.
+ * {@link PersonDataAggregator#jaxbContext()}, loadSchema), а файлы
+ * обрабатываются одновременно в пуле из jobs потоков с теми же опциями,
+ * что и одиночный запуск. Результат каждого файла пишется в выходной
+ * каталог под тем же именем, а с --report рядом с ним – отчёт этого
+ * файла &lt;имя&gt;.report.json; в общем отчёте --report этапы и примеры
+ * предупреждений помечены входным файлом.
+ * <p>
+ * Все файлы сразу ставятся в очередь пула: у каждого объединения своя
+ * таблица ID, так что массивы, индексируемые номерами ID, зависят только
+ * от своего файла, а медленный файл не задерживает остальные.
+ * <p>
+ * Ошибка в одном файле печатается и не останавливает остальные.
+ */
+class BatchRunner {
+
+    private final Map<String, String> options;
+    private final String schemaFile;
+    private final File outputDir;
+    private final int jobs;
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    BatchRunner(Map<String, String> options, String schemaFile, File outputDir, int jobs) {
+        this.options = options;
+        this.schemaFile = schemaFile;
+        this.outputDir = outputDir;
+        this.jobs = Math.max(1, jobs);
+    }
+
+    /**
+     * Входные файлы: для каталога – все *.xml и *.xml.gz в нём по имени,
+     * иначе input – список путей, по одному в строке (пустые строки и
+     * строки с # пропускаются).
+     */
+    static List<File> listInputs(File input) throws IOException {
+        List<File> files = new ArrayList<>();
+        if (input.isDirectory()) {
+            File[] entries = input.listFiles(BatchRunner::isInput);
+            if (entries != null) {
+                Arrays.sort(entries);
+                files.addAll(Arrays.asList(entries));
+            }
+            return files;
+        }
+        for (String line : Files.readAllLines(input.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) files.add(new File(line));
+        }
+        return files;
+    }
+
+    private static boolean isInput(File file) {
+        String name = file.getName();
+        return file.isFile() && (name.endsWith(".xml") || name.endsWith(".xml.gz"));
+    }
+
+    /** Обрабатывает все файлы и возвращает управление, когда они готовы. */
+    void run(List<File> inputs) throws InterruptedException {
+        runEach(inputs, file -> { });
+    }
+
+    /**
+     * Долгоживущий процесс: каждые pollMillis просматривает каталог и
+     * обрабатывает появившиеся файлы. Файл берётся, когда он не менялся
+     * хотя бы pollMillis (чтобы не читать недописанный), после обработки
+     * переносится в processed/ или, при ошибке, в failed/. Файл, который не
+     * удалось перенести, больше не берётся, иначе он обрабатывался бы на
+     * каждом просмотре. После каждого просмотра печатается сводка предупреждений,
+     * с --report отчёт просмотра дописывается в файл отчёта, и отчёт
+     * обнуляется (см. {@link #flushReport()}). Работает до прерывания потока.
+     */
+    void watch(File dir, long pollMillis) throws InterruptedException, IOException {
+        File done = new File(dir, "processed");
+        File errors = new File(dir, "failed");
+        Files.createDirectories(done.toPath());
+        Files.createDirectories(errors.toPath());
+        Set<File> stuck = new HashSet<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            long quietSince = System.currentTimeMillis() - pollMillis;
+            List<File> ready = new ArrayList<>();
+            for (File file : listInputs(dir)) {
+                if (file.lastModified() <= quietSince && !stuck.contains(file)) ready.add(file);
+            }
+            if (!ready.isEmpty()) {
+                runEach(ready, file -> {
+                    File target = new File(file.ok ? done : errors, file.input.getName());
+                    try {
+                        Files.move(file.input.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    } catch (IOException e) {
+                        stuck.add(file.input);
+                        System.err.println("Не удалось перенести " + file.input + ", файл пропускается: " + e);
+                    }
+                });
+                flushReport();
+            }
+            Thread.sleep(pollMillis);
+        }
+    }
+
+    /**
+     * Печатает сводку предупреждений, дописывает отчёт процесса в файл
+     * --report и обнуляет его. Вызывается после каждого просмотра и из
+     * обработчика завершения процесса, чтобы при Ctrl-C сохранился и
+     * незаконченный просмотр.
+     */
+    synchronized void flushReport() {
+        if (RunReport.isEmpty()) return;
+        RunReport.printWarningSummary(System.err);
+        if (options.containsKey("report")) {
+            Map<String, String> run = new LinkedHashMap<>();
+            run.put("output", outputDir.getPath());
+            run.put("finished", java.time.Instant.now().toString());
+            File file = new File(options.get("report"));
+            try {
+                RunReport.appendJson(file, run);
+            } catch (IOException e) {
+                System.err.println("Не удалось записать отчёт " + file + ": " + e);
+            }
+        }
+        RunReport.reset();
+    }
+
+    int processed() {
+        return processed.get();
+    }
+
+    int failed() {
+        return failed.get();
+    }
+
+    /** Результат обработки одного файла. */
+    private static final class Outcome {
+        final File input;
+        final boolean ok;
+
+        Outcome(File input, boolean ok) {
+            this.input = input;
+            this.ok = ok;
+        }
+    }
+
+    private interface Listener {
+        void done(Outcome outcome);
+    }
+
+    /** listener вызывается в этом потоке по мере готовности файлов. */
+    private void runEach(List<File> inputs, Listener listener) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        try {
+            CompletionService<Outcome> completed = new ExecutorCompletionService<>(pool);
+            for (File input : inputs) {
+                completed.submit(() -> new Outcome(input, process(input)));
+            }
+            for (int i = 0; i < inputs.size(); i++) {
+                try {
+                    listener.done(completed.take().get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());   // process() ловит всё сам
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private boolean process(File input) {
+        String name = input.getName();
+        File output = new File(outputDir, name);
+        RunReport report = RunReport.forFile(input.getPath());
+        boolean ok;
+        try {
+            report.within(() -> PersonDataAggregator.aggregate(input.getPath(), output.getPath(), schemaFile, options));
+            processed.incrementAndGet();
+            ok = true;
+        } catch (Throwable e) {
+            // И Error (например, StackOverflowError на глубоком документе) – ошибка одного файла
+            failed.incrementAndGet();
+            System.err.println("Ошибка обработки " + input + ": " + e);
+            ok = false;
+        }
+        if (options.containsKey("report")) writeReport(report, input, output, ok);
+        return ok;
+    }
+
+    /** Отчёт файла рядом с результатом: &lt;выход&gt;.report.json. */
+    private static void writeReport(RunReport report, File input, File output, boolean ok) {
+        Map<String, String> run = new LinkedHashMap<>();
+        run.put("input", input.getPath());
+        run.put("output", output.getPath());
+        run.put("status", ok ? "ok" : "failed");
+        File file = new File(output.getPath() + ".report.json");
+        try {
+            report.write(file, run);
+        } catch (IOException e) {
+            System.err.println("Не удалось записать отчёт " + file + ": " + e);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package ru.nsu.chernikov;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Чтение двоичного вывода {@link BinaryPersonWriter}. Файл отображается в
+ * память целиком; поиск человека по ID – двоичный поиск по индексу
+ * (O(log n) сравнений прямо в отображённых байтах), переход к родственнику
+ * – одно чтение из индекса. Файл не разбирается заранее, поэтому открытие
+ * не зависит от его размера.
+ * <pre>
+ * try (BinaryPersonReader reader = BinaryPersonReader.open(new File("persons.bin"))) {
+ *     BinaryPersonReader.Person p = reader.find("P123");
+ *     for (BinaryPersonReader.Person child : p.getChildren()) ...
+ * }
+ * </pre>
+ * Объекты можно использовать из нескольких потоков; после close() читать
+ * их нельзя.
+ */
+public final class BinaryPersonReader implements Closeable {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int indexOffset;
+
+    private BinaryPersonReader(FileChannel channel, MappedByteBuffer buffer, int count, int indexOffset) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.count = count;
+        this.indexOffset = indexOffset;
+    }
+
+    /**
+     * Открывает файл. Отображение в память ограничено 2 ГБ; для файлов
+     * больше этого бросается IOException.
+     */
+    public static BinaryPersonReader open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Файл " + file + " больше 2 ГБ и не может быть отображён в память");
+            }
+            if (size < BinaryPersonWriter.HEADER_SIZE) {
+                throw new IOException("Файл " + file + " не является двоичным выводом");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != BinaryPersonWriter.MAGIC) {
+                throw new IOException("Файл " + file + " не является двоичным выводом");
+            }
+            int version = buffer.getInt(4);
+            if (version != BinaryPersonWriter.VERSION) {
+                throw new IOException("Неподдерживаемая версия двоичного вывода " + version + " в " + file);
+            }
+            int count = buffer.getInt(8);
+            long indexOffset = buffer.getLong(16);
+            if (count < 0 || indexOffset < BinaryPersonWriter.HEADER_SIZE || indexOffset + 8L * count != size) {
+                throw new IOException("Файл " + file + " повреждён");
+            }
+            return new BinaryPersonReader(channel, buffer, count, (int) indexOffset);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Число людей в файле. */
+    public int size() {
+        return count;
+    }
+
+    /** Человек с номером ordinal в порядке возрастания ID (0..size()-1). */
+    public Person get(int ordinal) {
+        if (ordinal < 0 || ordinal >= count) {
+            throw new IndexOutOfBoundsException("Номер " + ordinal + " вне 0.." + (count - 1));
+        }
+        return new Person(ordinal, recordOffset(ordinal) + 4);
+    }
+
+    /** Человек с данным ID или null, если его нет. */
+    public Person find(String id) {
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareId(recordOffset(mid) + 4, key);
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return get(mid);
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int recordOffset(int ordinal) {
+        return (int) buffer.getLong(indexOffset + 8 * ordinal);
+    }
+
+    /** Сравнивает ID записи (первое поле тела) с key побайтно без знака. */
+    private int compareId(int position, byte[] key) {
+        int length = buffer.getInt(position);
+        int start = position + 4;
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Integer.compare(buffer.get(start + i) & 0xFF, key[i] & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private String stringAt(int position) {
+        int length = buffer.getInt(position);
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        buffer.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int skipString(int position) {
+        int length = buffer.getInt(position);
+        return position + 4 + Math.max(length, 0);
+    }
+
+    /**
+     * Запись о человеке. Поля читаются из файла при обращении; списки
+     * родственников ленивые и тоже ничего не копируют заранее.
+     */
+    public final class Person {
+        private static final int FIRST_NAME = 1, LAST_NAME = 2, GENDER = 3,
+                SPOUSE_NAME = 4, MOTHER_NAME = 5, FATHER_NAME = 6, STRINGS = 7;
+        private static final int PARENTS = 0, CHILDREN = 1, BROTHERS = 2, SISTERS = 3;
+
+        private final int ordinal;
+        private final int start;
+
+        private Person(int ordinal, int start) {
+            this.ordinal = ordinal;
+            this.start = start;
+        }
+
+        /** Номер в порядке возрастания ID. */
+        public int getOrdinal() { return ordinal; }
+
+        public String getId() { return stringAt(start); }
+
+        public String getFirstName() { return string(FIRST_NAME); }
+
+        public String getLastName() { return string(LAST_NAME); }
+
+        public String getGender() { return string(GENDER); }
+
+        public String getSpouseName() { return string(SPOUSE_NAME); }
+
+        public String getMotherName() { return string(MOTHER_NAME); }
+
+        public String getFatherName() { return string(FATHER_NAME); }
+
+        /** Супруг или null. */
+        public Person getSpouse() {
+            int spouse = buffer.getInt(afterStrings());
+            return spouse >= 0 ? get(spouse) : null;
+        }
+
+        public List<Person> getParents() { return relatives(PARENTS); }
+
+        public List<Person> getChildren() { return relatives(CHILDREN); }
+
+        public List<Person> getBrothers() { return relatives(BROTHERS); }
+
+        public List<Person> getSisters() { return relatives(SISTERS); }
+
+        private String string(int field) {
+            int position = start;
+            for (int i = 0; i < field; i++) position = skipString(position);
+            return stringAt(position);
+        }
+
+        private int afterStrings() {
+            int position = start;
+            for (int i = 0; i < STRINGS; i++) position = skipString(position);
+            return position;
+        }
+
+        private List<Person> relatives(int list) {
+            int position = afterStrings() + 4;   // после номера супруга
+            for (int i = 0; i < list; i++) position += 4 + 4 * buffer.getInt(position);
+            int size = buffer.getInt(position);
+            int first = position + 4;
+            return new AbstractList<Person>() {
+                @Override
+                public Person get(int i) {
+                    if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Индекс " + i + " вне 0.." + (size - 1));
+                    return BinaryPersonReader.this.get(buffer.getInt(first + 4 * i));
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return "Person[" + getId() + "]";
+        }
+    }
+}
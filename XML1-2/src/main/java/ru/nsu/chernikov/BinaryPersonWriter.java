@@ -0,0 +1,137 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Компактный двоичный вывод рядом с XML для тех, кому нужно найти
+ * нескольких людей по ID без разбора всего файла. Читается через
+ * {@link BinaryPersonReader}.
+ * <p>
+ * Формат (целые – big-endian, строки – длина в байтах и UTF-8, -1 для null):
+ * <pre>
+ * заголовок:  int MAGIC, int VERSION, int count, int 0, long indexOffset
+ * записи:     count раз int length + тело записи, в порядке возрастания ID
+ * индекс:     count раз long offset записи, в том же порядке
+ * тело:       id, firstName, lastName, gender, spouseName, motherName, fatherName,
+ *             int spouse (-1 – нет), затем parents, children, brothers, sisters
+ *             как int n + n номеров
+ * </pre>
+ * ID упорядочены по байтам UTF-8 (без знака), так что читатель ищет ID
+ * двоичным поиском по индексу, сравнивая байты прямо в файле. Ссылки на
+ * родственников хранятся номерами в этом порядке, поэтому переход к
+ * родственнику – одно чтение из индекса. Как и в XML, в ссылки попадают
+ * только существующие люди, а сиблинги делятся на братьев и сестёр по полу.
+ */
+final class BinaryPersonWriter {
+
+    static final int MAGIC = 0x50444142;   // "PDAB"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+
+    private BinaryPersonWriter() {
+    }
+
+    static void write(Map<String, PersonInfo> persons, IdTable ids, File file) throws IOException {
+        PersonInfo[] sorted = persons.values().toArray(new PersonInfo[0]);
+        byte[][] keys = new byte[sorted.length][];
+        Integer[] order = new Integer[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            keys[i] = sorted[i].id.getBytes(StandardCharsets.UTF_8);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(keys[a], keys[b]));
+        PersonInfo[] byId = new PersonInfo[sorted.length];
+        for (int i = 0; i < order.length; i++) byId[i] = sorted[order[i]];
+        sorted = byId;
+
+        // Номер в файле по номеру ID из таблицы объединения; -1 – человека нет
+        for (PersonInfo p : sorted) ids.intern(p.id);
+        int[] ordinals = new int[ids.size()];
+        Arrays.fill(ordinals, -1);
+        for (int i = 0; i < sorted.length; i++) ordinals[ids.indexOf(sorted[i].id)] = i;
+
+        long[] offsets = new long[sorted.length];
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_SIZE);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+            DataOutputStream body = new DataOutputStream(record);
+            long position = HEADER_SIZE;
+            for (int i = 0; i < sorted.length; i++) {
+                record.reset();
+                writeRecord(body, sorted[i], sorted, ids, ordinals);
+                offsets[i] = position;
+                out.writeInt(record.size());
+                record.writeTo(out);
+                position += 4 + record.size();
+            }
+            long indexOffset = position;
+            for (long offset : offsets) out.writeLong(offset);
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(sorted.length).putInt(0).putLong(indexOffset).flip();
+            while (header.hasRemaining()) channel.write(header, header.position());
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, PersonInfo p, PersonInfo[] sorted, IdTable ids,
+                                    int[] ordinals) throws IOException {
+        writeString(out, p.id);
+        writeString(out, p.firstName);
+        writeString(out, p.lastName);
+        writeString(out, p.gender);
+        writeString(out, p.spouseName);
+        writeString(out, p.motherName);
+        writeString(out, p.fatherName);
+        out.writeInt(p.spouseId != null ? ordinal(ordinals, ids.indexOf(p.spouseId)) : -1);
+        writeOrdinals(out, p.parents, ordinals, sorted, null);
+        writeOrdinals(out, p.children, ordinals, sorted, null);
+        writeOrdinals(out, p.siblings, ordinals, sorted, "male");
+        writeOrdinals(out, p.siblings, ordinals, sorted, "female");
+    }
+
+    /** Номера существующих людей из ids в порядке ID; если задан gender – только этого пола. */
+    private static void writeOrdinals(DataOutputStream out, IdSet ids, int[] ordinals, PersonInfo[] sorted,
+                                      String gender) throws IOException {
+        int[] order = ids.idOrder();
+        int count = 0;
+        for (int index : order) {
+            if (matches(ordinal(ordinals, index), sorted, gender)) count++;
+        }
+        out.writeInt(count);
+        for (int index : order) {
+            int ordinal = ordinal(ordinals, index);
+            if (matches(ordinal, sorted, gender)) out.writeInt(ordinal);
+        }
+    }
+
+    private static boolean matches(int ordinal, PersonInfo[] sorted, String gender) {
+        return ordinal >= 0 && (gender == null || gender.equalsIgnoreCase(sorted[ordinal].gender));
+    }
+
+    private static int ordinal(int[] ordinals, int index) {
+        return index >= 0 && index < ordinals.length ? ordinals[index] : -1;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,353 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Разбор фрагментов через курсорный API {@link XMLStreamReader}.
+ * Заполняет те же поля {@link PersonInfo}, что и событийный разбор в
+ * {@link PersonDataAggregator#parseFragments}, но не создаёт объектов-событий:
+ * элементы и атрибуты распознаются по заранее построенным таблицам,
+ * атрибуты читаются по индексу, буфер текста переиспользуется.
+ */
+class CursorFragmentParser {
+
+    /** Известные элементы; несколько написаний с одинаковой обработкой сведены в один тег. */
+    enum Tag {
+        PERSON("person"),
+        FULLNAME("fullname"),
+        FIRST("first"),
+        FAMILY("family"),
+        FIRST_NAME("firstname", "firstName"),
+        LAST_NAME("surname", "lastName"),
+        FAMILY_NAME("family-name"),
+        GENDER("gender"),
+        MOTHER("mother"),
+        FATHER("father"),
+        ID("id"),
+        SPOUSE("spouse"),
+        SPOUSE_ALIAS("spouce", "wife", "husband"),
+        PARENT("parent"),
+        CHILD("child", "son", "daughter"),
+        SIBLING("sibling"),
+        SIBLINGS("siblings"),
+        BROTHER_SISTER("brother", "sister"),
+        CHILDREN("children"),
+        CHILDREN_NUMBER("children-number"),
+        SIBLINGS_NUMBER("siblings-number"),
+        OTHER;
+
+        final String[] names;
+
+        Tag(String... names) {
+            this.names = names;
+        }
+    }
+
+    enum Attr { ID, NAME, REF, VAL, VALUE, COUNT }
+
+    static final Map<String, Tag> TAGS = new HashMap<>();
+    private static final Map<String, Attr> ATTRS = new HashMap<>();
+
+    static {
+        for (Tag tag : Tag.values()) {
+            for (String name : tag.names) TAGS.put(name, tag);
+        }
+        for (Attr attr : Attr.values()) {
+            ATTRS.put(attr.name().toLowerCase(Locale.ROOT), attr);
+        }
+    }
+
+    private final IdTable ids;
+    private final Consumer<PersonInfo> fragments;
+    char[] text = new char[256];   // переиспользуемый буфер текста текущего элемента
+    int textLength;
+
+    // значения атрибутов текущего открывающего тега
+    private String idAttr, nameAttr, refAttr, valAttr, valueAttr, countAttr;
+
+    // состояние разбора
+    private PersonInfo currentPerson;
+    private boolean inElement;   // аналог currentElement != null в событийном разборе
+    private boolean inFullname;
+
+    CursorFragmentParser(IdTable ids, Consumer<PersonInfo> fragments) {
+        this.ids = ids;
+        this.fragments = fragments;
+    }
+
+    /**
+     * Читает фрагменты &lt;person&gt; из курсора и передаёт их в sink в порядке появления.
+     */
+    static void parseFragments(XMLStreamReader reader, IdTable ids,
+                               Consumer<PersonInfo> fragments) throws XMLStreamException {
+        new CursorFragmentParser(ids, fragments).run(reader);
+    }
+
+    private void run(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    clearAttributes();
+                    readAttributes(reader);
+                    startTag(TAGS.getOrDefault(reader.getLocalName(), Tag.OTHER));
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    endTag(TAGS.getOrDefault(reader.getLocalName(), Tag.OTHER));
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (inElement) appendText(reader);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void readAttributes(XMLStreamReader reader) {
+        for (int i = 0, n = reader.getAttributeCount(); i < n; i++) {
+            String ns = reader.getAttributeNamespace(i);
+            if (ns != null && !ns.isEmpty()) continue;
+            Attr attr = ATTRS.get(reader.getAttributeLocalName(i));
+            if (attr != null) setAttribute(attr, reader.getAttributeValue(i));
+        }
+    }
+
+    // ---------- Обработка тегов, общая с MappedFragmentParser ----------
+
+    void clearAttributes() {
+        idAttr = nameAttr = refAttr = valAttr = valueAttr = countAttr = null;
+    }
+
+    void setAttribute(Attr attr, String value) {
+        switch (attr) {
+            case ID: idAttr = value; break;
+            case NAME: nameAttr = value; break;
+            case REF: refAttr = value; break;
+            case VAL: valAttr = value; break;
+            case VALUE: valueAttr = value; break;
+            case COUNT: countAttr = value; break;
+        }
+    }
+
+    /** Открывающий тег; атрибуты к этому моменту уже заданы через setAttribute. */
+    void startTag(Tag tag) {
+        inElement = true;
+        textLength = 0;
+        if (tag == Tag.PERSON) {
+            currentPerson = new PersonInfo(ids);
+            if (idAttr != null) currentPerson.id = idAttr;
+            if (nameAttr != null) PersonDataAggregator.parseFullName(nameAttr, currentPerson);
+        } else if (currentPerson != null) {
+            if (tag == Tag.FULLNAME) inFullname = true;
+            startElement(currentPerson, tag);
+        }
+    }
+
+    void endTag(Tag tag) {
+        if (tag == Tag.PERSON) {
+            if (currentPerson != null) {
+                RunReport.count(RunReport.Counter.FRAGMENTS_PARSED);
+                fragments.accept(currentPerson);
+                currentPerson = null;
+            }
+            inFullname = false;
+        } else if (currentPerson != null) {
+            endElement(currentPerson, tag, inFullname);
+            if (tag == Tag.FULLNAME) inFullname = false;
+        }
+        inElement = false;
+    }
+
+    /** true, если текст сейчас накапливается (после открывающего тега, до любого закрывающего). */
+    boolean collectingText() {
+        return inElement;
+    }
+
+    /** Гарантирует место ещё для n символов в буфере текста. */
+    void reserveText(int n) {
+        if (textLength + n > text.length) {
+            text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + n));
+        }
+    }
+
+    private void startElement(PersonInfo person, Tag tag) {
+        // Ссылки по ID: список в val имеет приоритет над ref
+        if (valAttr != null) {
+            int len = valAttr.length();
+            int i = 0;
+            while (i < len) {
+                while (i < len && isRegexSpace(valAttr.charAt(i))) i++;
+                int start = i;
+                while (i < len && !isRegexSpace(valAttr.charAt(i))) i++;
+                if (i > start) addReference(person, tag, valAttr.substring(start, i));
+            }
+        } else if (refAttr != null) {
+            addReference(person, tag, refAttr);
+        }
+
+        if (valueAttr != null && !"UNKNOWN".equals(valueAttr) && !"NONE".equals(valueAttr)) {
+            processValueAttribute(person, tag, valueAttr);
+        }
+
+        if (countAttr != null) {
+            try {
+                int count = Integer.parseInt(countAttr);
+                if (tag == Tag.CHILDREN || tag == Tag.CHILDREN_NUMBER) {
+                    person.childrenCountMarker = count;
+                } else if (tag == Tag.SIBLINGS || tag == Tag.SIBLINGS_NUMBER) {
+                    person.siblingsCountMarker = count;
+                }
+            } catch (NumberFormatException ignored) {}
+        }
+
+        if (idAttr != null) {
+            if (tag == Tag.CHILD) person.children.add(idAttr);
+            else if (tag == Tag.BROTHER_SISTER) person.siblings.add(idAttr);
+        }
+    }
+
+    private void endElement(PersonInfo person, Tag tag, boolean inFullname) {
+        // Обрезаем пробелы по правилам String.trim(), не создавая строку
+        int start = 0;
+        int end = textLength;
+        while (start < end && text[start] <= ' ') start++;
+        while (end > start && text[end - 1] <= ' ') end--;
+        if (start == end || textEquals(start, end, "UNKNOWN") || textEquals(start, end, "NONE")) return;
+
+        if (inFullname) {
+            if (tag == Tag.FIRST) person.firstName = new String(text, start, end - start);
+            else if (tag == Tag.FAMILY) person.lastName = new String(text, start, end - start);
+            return;
+        }
+        switch (tag) {
+            case FIRST_NAME:
+                person.firstName = new String(text, start, end - start);
+                break;
+            case LAST_NAME:
+            case FAMILY_NAME:
+                person.lastName = new String(text, start, end - start);
+                break;
+            case GENDER:
+                person.gender = PersonDataAggregator.normalizeGender(new String(text, start, end - start));
+                break;
+            case MOTHER:
+                person.motherName = new String(text, start, end - start);
+                break;
+            case FATHER:
+                person.fatherName = new String(text, start, end - start);
+                break;
+            case ID:
+                person.id = new String(text, start, end - start);
+                break;
+            case SPOUSE_ALIAS: {
+                String value = new String(text, start, end - start);
+                if (PersonDataAggregator.isLikelyId(value)) person.spouseId = value;
+                else person.spouseName = value;
+                break;
+            }
+            case PARENT: {
+                String value = new String(text, start, end - start);
+                if (PersonDataAggregator.isLikelyId(value)) person.parents.add(value);
+                break;
+            }
+            case CHILD:
+                if (person.unresolvedChildNames == null) person.unresolvedChildNames = new HashSet<>();
+                person.unresolvedChildNames.add(new String(text, start, end - start));
+                break;
+            case BROTHER_SISTER:
+                if (person.unresolvedSiblingNames == null) person.unresolvedSiblingNames = new HashSet<>();
+                person.unresolvedSiblingNames.add(new String(text, start, end - start));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void addReference(PersonInfo person, Tag tag, String ref) {
+        switch (tag) {
+            case SPOUSE:
+            case SPOUSE_ALIAS:
+                person.spouseId = ref;
+                break;
+            case PARENT:
+                person.parents.add(ref);
+                break;
+            case CHILD:
+                person.children.add(ref);
+                break;
+            case SIBLING:
+            case SIBLINGS:
+            case BROTHER_SISTER:
+                person.siblings.add(ref);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void processValueAttribute(PersonInfo person, Tag tag, String value) {
+        switch (tag) {
+            case FIRST_NAME:
+                person.firstName = value;
+                break;
+            case LAST_NAME:
+                person.lastName = value;
+                break;
+            case GENDER:
+                person.gender = PersonDataAggregator.normalizeGender(value);
+                break;
+            case ID:
+                person.id = value;
+                break;
+            case SPOUSE_ALIAS:
+                if (PersonDataAggregator.isLikelyId(value)) person.spouseId = value;
+                else person.spouseName = value;
+                break;
+            case MOTHER:
+                person.motherName = value;
+                break;
+            case FATHER:
+                person.fatherName = value;
+                break;
+            case PARENT:
+                if (PersonDataAggregator.isLikelyId(value)) person.parents.add(value);
+                break;
+            case CHILDREN_NUMBER:
+                try { person.childrenCountMarker = Integer.parseInt(value); } catch (NumberFormatException ignored) {}
+                break;
+            case SIBLINGS_NUMBER:
+                try { person.siblingsCountMarker = Integer.parseInt(value); } catch (NumberFormatException ignored) {}
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void appendText(XMLStreamReader reader) {
+        int length = reader.getTextLength();
+        reserveText(length);
+        System.arraycopy(reader.getTextCharacters(), reader.getTextStart(), text, textLength, length);
+        textLength += length;
+    }
+
+    private boolean textEquals(int start, int end, String s) {
+        if (end - start != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (text[start + i] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /** Символы класса \s в регулярных выражениях Java. */
+    private static boolean isRegexSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,208 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.ParserEngine;
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import javax.xml.validation.Schema;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Агрегация во внешней памяти для входных файлов, не помещающихся в кучу.
+ * <ol>
+ *   <li>Фрагменты при разборе раскладываются в два внешних сортировщика:
+ *       по ID и (для фрагментов без ID) по каноническому имени.</li>
+ *   <li>Слияние групп по ID восстанавливает людей по одному; они пишутся на диск
+ *       в порядке ID, а в памяти остаётся только индекс "имя -> ID".</li>
+ *   <li>Группы по имени присоединяются к найденному по имени человеку или
+ *       становятся новыми людьми с синтетическим ID; результат снова сортируется по ID.</li>
+ *   <li>Слияние двух отсортированных по ID потоков даёт окончательные записи;
+ *       каждая сразу проходит разрешение имён и проверку маркеров.</li>
+ *   <li>Записи потоково выводятся через {@link StreamingPersonWriter}.</li>
+ * </ol>
+ * В памяти постоянно держатся лишь индекс "имя -> ID", таблица ID и байт пола
+ * на человека, нужные для разрешения имён и разбиения сиблингов; сами записи
+ * о людях находятся на диске.
+ */
+class ExternalAggregation {
+
+    private final File tempDir;
+    private final long memoryBudget;
+    private final boolean dedup;
+
+    ExternalAggregation(File tempDir, long memoryBudget, boolean dedup) {
+        this.tempDir = tempDir;
+        this.memoryBudget = memoryBudget;
+        this.dedup = dedup;
+    }
+
+    void run(String inputFile, ParserEngine engine, String outputFile, Schema schema) throws Exception {
+        // Выданные синтетические ID: людей целиком в памяти нет, занятость проверяется по ним
+        Set<String> issued = new HashSet<>();
+        SyntheticIds syntheticIds = new SyntheticIds(issued::contains);
+        Map<String, String> idByName = new HashMap<>();
+        IdTable ids = new IdTable();
+        StreamingPersonWriter.Directory directory = new StreamingPersonWriter.Directory(ids);
+
+        // Вложенные блоки закрывают временные файлы, как только этап с ними закончен
+        try (PersonSpool resolved = new PersonSpool(tempDir, ids)) {
+            try (PersonSpool merged = new PersonSpool(tempDir, ids);
+                 ExternalSorter attached = new ExternalSorter(tempDir, memoryBudget, ids)) {
+                try (ExternalSorter byName = new ExternalSorter(tempDir, memoryBudget / 2, ids)) {
+                    try (ExternalSorter byId = new ExternalSorter(tempDir, memoryBudget / 2, ids)) {
+
+                        // 1. Разбор: фрагменты сразу уходят во внешние сортировщики
+                        Consumer<PersonInfo> sort = frag -> {
+                            try {
+                                if (frag.id != null) {
+                                    RunReport.count(RunReport.Counter.FRAGMENTS_WITH_ID);
+                                    byId.add(frag.id, frag);
+                                } else {
+                                    String name = frag.getCanonicalName();
+                                    if (name != null) {
+                                        RunReport.count(RunReport.Counter.FRAGMENTS_BY_NAME);
+                                        byName.add(name, frag);
+                                    } else {
+                                        frag.id = syntheticIds.next(null, frag);
+                                        issued.add(frag.id);
+                                        byId.add(frag.id, frag);
+                                    }
+                                }
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        };
+                        // Отпечатки копий занимают 32 байта на фрагмент, сами фрагменты в памяти не держатся
+                        PersonDataAggregator.parseInput(inputFile, engine, ids, dedup ? new FragmentDeduplicator(sort) : sort);
+
+                        // 2. Объединение по ID; индекс имён строится по уже объединённым людям
+                        for (Iterator<ExternalSorter.Group> it = byId.groups(); it.hasNext(); ) {
+                            List<PersonInfo> group = it.next().fragments;
+                            PersonInfo person = group.get(0);
+                            for (int i = 1; i < group.size(); i++) person.merge(group.get(i));
+                            String name = person.getCanonicalName();
+                            if (name != null) idByName.putIfAbsent(name, person.id);
+                            merged.write(person);
+                        }
+                    }
+
+                    // 3. Фрагменты без ID: к известному человеку или новый человек
+                    for (Iterator<ExternalSorter.Group> it = byName.groups(); it.hasNext(); ) {
+                        ExternalSorter.Group group = it.next();
+                        PersonInfo combined = new PersonInfo(ids);
+                        for (PersonInfo frag : group.fragments) combined.merge(frag);
+                        String targetId = idByName.get(group.key);
+                        if (targetId != null) {
+                            RunReport.count(RunReport.Counter.FRAGMENTS_ATTACHED_BY_NAME, group.fragments.size());
+                            attached.add(targetId, combined);
+                        } else {
+                            combined.id = syntheticIds.next(group.key, combined);
+                            issued.add(combined.id);
+                            String[] parts = group.key.split(" ", 2);
+                            combined.firstName = parts[0];
+                            if (parts.length > 1) combined.lastName = parts[1];
+                            combined.canonicalName = null;
+                            idByName.put(group.key, combined.id);
+                            attached.add(combined.id, combined);
+                        }
+                    }
+                }
+
+                // 4. Слияние двух отсортированных по ID потоков, разрешение имён и проверка
+                Iterator<PersonInfo> base = merged.read();
+                Iterator<ExternalSorter.Group> extra = attached.groups();
+                PersonInfo b = base.hasNext() ? base.next() : null;
+                ExternalSorter.Group g = extra.hasNext() ? extra.next() : null;
+                while (b != null || g != null) {
+                    int cmp = b == null ? 1 : g == null ? -1 : b.id.compareTo(g.key);
+                    PersonInfo person;
+                    if (cmp <= 0) {
+                        person = b;
+                        b = base.hasNext() ? base.next() : null;
+                    } else {
+                        person = g.fragments.get(0);
+                    }
+                    if (cmp >= 0) {
+                        for (PersonInfo frag : g.fragments) {
+                            if (frag != person) person.merge(frag);
+                        }
+                        g = extra.hasNext() ? extra.next() : null;
+                    }
+                    PersonDataAggregator.resolvePerson(person, idByName::get);
+                    PersonDataAggregator.validatePerson(person);
+                    directory.put(person.id, person.gender);
+                    RunReport.count(RunReport.Counter.PERSONS);
+                    resolved.write(person);
+                }
+            }
+            idByName.clear();
+
+            // 5. Потоковый вывод с проверкой по схеме
+            StreamingPersonWriter.write(resolved.read(), directory, outputFile, schema);
+        }
+    }
+
+    /**
+     * Последовательный файл записей о людях: пишется один раз, затем читается итератором.
+     */
+    private static final class PersonSpool implements Closeable {
+        private final File file;
+        private final IdTable ids;
+        private DataOutputStream out;
+
+        PersonSpool(File tempDir, IdTable ids) throws IOException {
+            this.ids = ids;
+            file = File.createTempFile("persons-spool-", ".bin", tempDir);
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        }
+
+        void write(PersonInfo person) throws IOException {
+            out.writeBoolean(true);
+            person.writeTo(out);
+        }
+
+        Iterator<PersonInfo> read() throws IOException {
+            out.writeBoolean(false);
+            out.close();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            return new Iterator<PersonInfo>() {
+                private PersonInfo next = advance();
+
+                private PersonInfo advance() {
+                    try {
+                        if (in.readBoolean()) return PersonInfo.readFrom(in, ids);
+                        in.close();
+                        return null;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public PersonInfo next() {
+                    if (next == null) throw new NoSuchElementException();
+                    PersonInfo current = next;
+                    next = advance();
+                    return current;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Внешняя сортировка фрагментов по строковому ключу. Пока фрагменты
+ * помещаются в бюджет памяти, они копятся в буфере; при переполнении буфер
+ * сортируется и сбрасывается на диск отдельным прогоном. Чтение выполняется
+ * k-путевым слиянием прогонов и выдаёт фрагменты группами с одинаковым ключом.
+ * Сортировка устойчива: внутри группы сохраняется порядок добавления.
+ */
+class ExternalSorter implements Closeable {
+
+    private static final int IO_BUFFER = 1 << 16;
+
+    private final File tempDir;
+    private final long memoryBudget;
+    private final IdTable ids;
+    private final List<File> runs = new ArrayList<>();
+    private List<Entry> buffer = new ArrayList<>();
+    private long bufferedBytes;
+    private long added;
+
+    private static final class Entry {
+        final String key;
+        final PersonInfo person;
+
+        Entry(String key, PersonInfo person) {
+            this.key = key;
+            this.person = person;
+        }
+    }
+
+    /** Группа фрагментов с одинаковым ключом в порядке добавления. */
+    static final class Group {
+        final String key;
+        final List<PersonInfo> fragments;
+
+        Group(String key, List<PersonInfo> fragments) {
+            this.key = key;
+            this.fragments = fragments;
+        }
+    }
+
+    /** ids – таблица, в которую интернируются ID фрагментов, прочитанных из прогонов. */
+    ExternalSorter(File tempDir, long memoryBudget, IdTable ids) {
+        this.tempDir = tempDir;
+        this.memoryBudget = memoryBudget;
+        this.ids = ids;
+    }
+
+    void add(String key, PersonInfo person) throws IOException {
+        buffer.add(new Entry(key, person));
+        bufferedBytes += estimateSize(key, person);
+        added++;
+        if (bufferedBytes >= memoryBudget) {
+            spill();
+        }
+    }
+
+    long size() {
+        return added;
+    }
+
+    int runCount() {
+        return runs.size();
+    }
+
+    private void spill() throws IOException {
+        if (buffer.isEmpty()) return;
+        buffer.sort(Comparator.comparing(e -> e.key));   // List.sort устойчива
+        File run = File.createTempFile("persons-run-", ".bin", tempDir);
+        run.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(run), IO_BUFFER))) {
+            for (Entry e : buffer) {
+                out.writeBoolean(true);
+                out.writeUTF(e.key);
+                e.person.writeTo(out);
+            }
+            out.writeBoolean(false);
+        }
+        runs.add(run);
+        buffer = new ArrayList<>();
+        bufferedBytes = 0;
+    }
+
+    /**
+     * Возвращает итератор групп в порядке возрастания ключа. Остаток буфера
+     * участвует в слиянии как последний прогон, без записи на диск.
+     */
+    Iterator<Group> groups() throws IOException {
+        buffer.sort(Comparator.comparing(e -> e.key));
+        List<RunReader> readers = new ArrayList<>();
+        for (int i = 0; i < runs.size(); i++) {
+            readers.add(new FileRunReader(runs.get(i), i, ids));
+        }
+        readers.add(new MemoryRunReader(buffer, runs.size()));
+        buffer = new ArrayList<>();
+        bufferedBytes = 0;
+        return new MergeIterator(readers);
+    }
+
+    @Override
+    public void close() {
+        for (File run : runs) {
+            try {
+                Files.deleteIfExists(run.toPath());
+            } catch (IOException ignored) {}
+        }
+        runs.clear();
+        buffer = new ArrayList<>();
+    }
+
+    /** Грубая оценка занимаемой фрагментом памяти в куче. */
+    static long estimateSize(String key, PersonInfo p) {
+        long size = 200 + 2L * key.length();
+        size += stringSize(p.id) + stringSize(p.firstName) + stringSize(p.lastName) + stringSize(p.spouseId)
+                + stringSize(p.spouseName) + stringSize(p.motherName) + stringSize(p.fatherName);
+        size += setSize(p.parents) + setSize(p.children) + setSize(p.siblings)
+                + setSize(p.unresolvedChildNames) + setSize(p.unresolvedSiblingNames);
+        return size;
+    }
+
+    private static long stringSize(String s) {
+        return s == null ? 0 : 48 + 2L * s.length();
+    }
+
+    private static long setSize(IdSet ids) {
+        return 24 + 4L * ids.size();
+    }
+
+    private static long setSize(Set<String> set) {
+        if (set == null) return 0;
+        long size = 64;
+        for (String s : set) size += 40 + stringSize(s);
+        return size;
+    }
+
+    // ---------- Слияние прогонов ----------
+
+    private abstract static class RunReader implements Closeable {
+        final int order;        // номер прогона; меньший номер – более ранние фрагменты
+        String key;
+        PersonInfo person;
+
+        RunReader(int order) {
+            this.order = order;
+        }
+
+        /** Переходит к следующей записи; false, если прогон исчерпан. */
+        abstract boolean advance() throws IOException;
+
+        @Override
+        public void close() throws IOException {}
+    }
+
+    private static final class FileRunReader extends RunReader {
+        private final DataInputStream in;
+        private final IdTable ids;
+
+        FileRunReader(File run, int order, IdTable ids) throws IOException {
+            super(order);
+            this.ids = ids;
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), IO_BUFFER));
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            if (!in.readBoolean()) {
+                key = null;
+                person = null;
+                return false;
+            }
+            key = in.readUTF();
+            person = PersonInfo.readFrom(in, ids);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class MemoryRunReader extends RunReader {
+        private final Iterator<Entry> entries;
+
+        MemoryRunReader(List<Entry> entries, int order) {
+            super(order);
+            this.entries = entries.iterator();
+        }
+
+        @Override
+        boolean advance() {
+            if (!entries.hasNext()) {
+                key = null;
+                person = null;
+                return false;
+            }
+            Entry e = entries.next();
+            key = e.key;
+            person = e.person;
+            return true;
+        }
+    }
+
+    private static final class MergeIterator implements Iterator<Group> {
+        private final PriorityQueue<RunReader> heap = new PriorityQueue<>(
+                Comparator.<RunReader, String>comparing(r -> r.key).thenComparingInt(r -> r.order));
+
+        MergeIterator(List<RunReader> readers) throws IOException {
+            for (RunReader r : readers) {
+                if (r.advance()) heap.add(r);
+                else r.close();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        @Override
+        public Group next() {
+            if (heap.isEmpty()) throw new NoSuchElementException();
+            String key = heap.peek().key;
+            List<PersonInfo> fragments = new ArrayList<>();
+            try {
+                while (!heap.isEmpty() && heap.peek().key.equals(key)) {
+                    RunReader r = heap.poll();
+                    // Все записи с этим ключом из одного прогона идут подряд
+                    do {
+                        fragments.add(r.person);
+                    } while (r.advance() && r.key.equals(key));
+                    if (r.key != null) heap.add(r);
+                    else r.close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new Group(key, fragments);
+        }
+    }
+}
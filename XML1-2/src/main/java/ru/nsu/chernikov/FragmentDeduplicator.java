@@ -0,0 +1,92 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Отбрасывает точные копии уже встреченных фрагментов до того, как они
+ * попадут в список фрагментов. Для каждого фрагмента считается 128-битный
+ * отпечаток всех заполненных полей (два независимых хеша
+ * {@link SyntheticIds#hash}), в таблице хранятся только отпечатки.
+ * Сохраняется первая копия, остальные учитываются в
+ * {@link RunReport.Counter#FRAGMENTS_DUPLICATE}. Фрагменты без ID и без
+ * имени пропускаются всегда: каждый из них становится отдельным человеком,
+ * и копия здесь – другой человек, а не повтор записи.
+ * <p>
+ * Повторное объединение копии ничего не добавляет, кроме одного случая:
+ * если между копиями стоит фрагмент того же человека с другим значением
+ * того же поля, без дедупликации побеждает значение последней копии, а с
+ * ней – значение промежуточного фрагмента. Поэтому режим включается
+ * отдельной опцией (--dedup).
+ * <p>
+ * Не потокобезопасен: фрагменты подаются из одного потока в порядке файла.
+ */
+class FragmentDeduplicator implements Consumer<PersonInfo> {
+
+    // Второй хеш: другое начальное значение и нечётный множитель вместо простого FNV
+    private static final long SECOND_BASIS = 0x84222325cbf29ce4L;
+    private static final long SECOND_PRIME = 0x9e3779b97f4a7c15L;
+
+    private final Consumer<PersonInfo> downstream;
+    // Открытая адресация: пары (high, low), пара (0, 0) – пустая ячейка
+    private long[] table = new long[2 * 1024];
+    private int size;
+
+    FragmentDeduplicator(Consumer<PersonInfo> downstream) {
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void accept(PersonInfo frag) {
+        if (frag.id == null && frag.getCanonicalName() == null || add(frag)) {
+            downstream.accept(frag);
+        } else {
+            RunReport.count(RunReport.Counter.FRAGMENTS_DUPLICATE);
+        }
+    }
+
+    /** Фрагменты без копий, в исходном порядке. */
+    static List<PersonInfo> filter(List<PersonInfo> fragments) {
+        List<PersonInfo> unique = new ArrayList<>(fragments.size());
+        FragmentDeduplicator dedup = new FragmentDeduplicator(unique::add);
+        for (PersonInfo frag : fragments) dedup.accept(frag);
+        return unique;
+    }
+
+    /** Запоминает отпечаток фрагмента; false, если такой уже был. */
+    boolean add(PersonInfo frag) {
+        long high = SyntheticIds.hash(frag.id, frag);
+        long low = SyntheticIds.hash(frag.id, frag, SECOND_BASIS, SECOND_PRIME);
+        if (high == 0 && low == 0) low = 1;
+        if (insert(table, high, low)) {
+            if (++size * 2 > table.length / 2) grow();
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean insert(long[] table, long high, long low) {
+        int mask = table.length / 2 - 1;
+        for (int slot = (int) (high ^ high >>> 32) & mask; ; slot = (slot + 1) & mask) {
+            long h = table[2 * slot];
+            long l = table[2 * slot + 1];
+            if (h == 0 && l == 0) {
+                table[2 * slot] = high;
+                table[2 * slot + 1] = low;
+                return true;
+            }
+            if (h == high && l == low) return false;
+        }
+    }
+
+    private void grow() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        for (int i = 0; i < old.length; i += 2) {
+            if (old[i] != 0 || old[i + 1] != 0) insert(table, old[i], old[i + 1]);
+        }
+    }
+}
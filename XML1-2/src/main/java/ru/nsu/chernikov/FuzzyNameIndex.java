@@ -0,0 +1,204 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Индекс имён с нечётким сопоставлением (--fuzzy-names). Если точного
+ * совпадения канонического имени нет, имя сравнивается в три ступени:
+ * <ol>
+ *   <li>по ключу из отсортированных токенов в нижнем регистре – "Ivan  Petrov",
+ *       "ivan petrov" и "Petrov Ivan" дают один ключ "ivan petrov";</li>
+ *   <li>по блокам: каждый человек попадает в блок каждого своего токена, и
+ *       дорогое сравнение (расстояние Левенштейна между ключами) выполняется
+ *       только с людьми из блоков токенов искомого имени;</li>
+ *   <li>блоки больше {@link #MAX_BLOCK} людей (частые имена вроде "ivan")
+ *       отбрасываются – в них нечёткое сравнение потеряло бы смысл и стало
+ *       бы квадратичным.</li>
+ * </ol>
+ * Ключи считают похожими, если цифры в них совпадают (номера в фамилиях
+ * различают людей) и расстояние не больше {@link #MAX_DISTANCE_RATIO} длины
+ * более длинного ключа. Индекс строится за линейное время; число
+ * совпадений на каждой ступени, сравнений и отброшенных блоков попадает в
+ * отчёт о запуске.
+ * <p>
+ * Как и {@link NameIndex}, изменяется только из одного потока; get можно
+ * вызывать из нескольких потоков, когда изменения закончены.
+ */
+class FuzzyNameIndex extends NameIndex {
+
+    static final int MAX_BLOCK = 64;
+    static final double MAX_DISTANCE_RATIO = 0.15;
+
+    /** Человек и его ключ на момент добавления. */
+    private static final class Entry {
+        final String key;
+        final PersonInfo person;
+
+        Entry(String key, PersonInfo person) {
+            this.key = key;
+            this.person = person;
+        }
+    }
+
+    private final Map<String, PersonInfo> byKey = new HashMap<>();
+    // Отброшенный блок остаётся в карте со значением null, чтобы не собираться снова
+    private final Map<String, List<Entry>> blocks = new HashMap<>();
+
+    @Override
+    void add(PersonInfo person) {
+        super.add(person);
+        String name = person.getCanonicalName();
+        if (name == null) return;
+        String[] tokens = tokens(name);
+        String key = String.join(" ", tokens);
+        byKey.putIfAbsent(key, person);
+        Entry entry = new Entry(key, person);
+        for (int i = 0; i < tokens.length; i++) {
+            if (i > 0 && tokens[i].equals(tokens[i - 1])) continue;
+            addToBlock(tokens[i], entry);
+        }
+    }
+
+    private void addToBlock(String token, Entry entry) {
+        if (!blocks.containsKey(token)) {
+            blocks.put(token, new ArrayList<>(2));
+        }
+        List<Entry> block = blocks.get(token);
+        if (block == null) return;
+        if (block.size() == MAX_BLOCK) {
+            blocks.put(token, null);
+            RunReport.count(RunReport.Counter.FUZZY_BLOCKS_DROPPED);
+            return;
+        }
+        block.add(entry);
+    }
+
+    @Override
+    PersonInfo get(String canonicalName) {
+        PersonInfo exact = super.get(canonicalName);
+        if (exact != null) return exact;
+
+        String[] tokens = tokens(canonicalName);
+        String key = String.join(" ", tokens);
+        PersonInfo normalized = byKey.get(key);
+        if (normalized != null) {
+            RunReport.count(RunReport.Counter.FUZZY_KEY_MATCHES);
+            return normalized;
+        }
+
+        String digits = digits(key);
+        Entry best = null;
+        int bestDistance = Integer.MAX_VALUE;
+        int comparisons = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            if (i > 0 && tokens[i].equals(tokens[i - 1])) continue;
+            List<Entry> block = blocks.get(tokens[i]);
+            if (block == null) continue;
+            for (Entry candidate : block) {
+                if (candidate == best || !digits.equals(digits(candidate.key))) continue;
+                int limit = (int) (Math.max(key.length(), candidate.key.length()) * MAX_DISTANCE_RATIO);
+                comparisons++;
+                int distance = distance(key, candidate.key, Math.min(limit, bestDistance - 1));
+                if (distance >= 0 && distance < bestDistance) {
+                    best = candidate;
+                    bestDistance = distance;
+                }
+            }
+        }
+        RunReport.count(RunReport.Counter.FUZZY_COMPARISONS, comparisons);
+        if (best == null) return null;
+        RunReport.count(RunReport.Counter.FUZZY_SIMILAR_MATCHES);
+        return best.person;
+    }
+
+    /**
+     * Фрагмент найден по другому написанию имени: имя человека остаётся
+     * прежним, иначе написание зависело бы от порядка фрагментов.
+     */
+    @Override
+    void attach(PersonInfo target, PersonInfo fragment) {
+        String name = fragment.getCanonicalName();
+        if (name != null && !name.equals(target.getCanonicalName())) {
+            fragment.firstName = null;
+            fragment.lastName = null;
+            fragment.canonicalName = null;
+        }
+        mergeInto(target, fragment);
+    }
+
+    @Override
+    void mergeInto(PersonInfo target, PersonInfo fragment) {
+        String before = target.getCanonicalName();
+        super.mergeInto(target, fragment);
+        String after = target.getCanonicalName();
+        if (before == null || before.equals(after)) return;
+        String oldKey = String.join(" ", tokens(before));
+        if (after == null || !oldKey.equals(String.join(" ", tokens(after)))) {
+            // Старый ключ больше не описывает человека; новый уже добавлен в super.mergeInto
+            byKey.remove(oldKey, target);
+            for (String token : tokens(before)) {
+                List<Entry> block = blocks.get(token);
+                if (block != null) block.removeIf(e -> e.person == target && e.key.equals(oldKey));
+            }
+        }
+    }
+
+    /** Токены имени в нижнем регистре, отсортированные. */
+    static String[] tokens(String name) {
+        String[] tokens = name.trim().toLowerCase(Locale.ROOT).split("\\s+");
+        Arrays.sort(tokens);
+        return tokens;
+    }
+
+    private static String digits(String s) {
+        StringBuilder sb = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (sb == null) sb = new StringBuilder();
+                sb.append(c);
+            }
+        }
+        return sb == null ? "" : sb.toString();
+    }
+
+    /**
+     * Расстояние Левенштейна, если оно не больше limit, иначе -1. Считается
+     * только полоса шириной 2·limit+1 вокруг диагонали.
+     */
+    static int distance(String a, String b, int limit) {
+        if (limit < 0 || Math.abs(a.length() - b.length()) > limit) return -1;
+        int n = b.length();
+        int[] prev = new int[n + 1];
+        int[] cur = new int[n + 1];
+        int big = limit + 1;
+        for (int j = 0; j <= n; j++) prev[j] = j <= limit ? j : big;
+        for (int i = 1; i <= a.length(); i++) {
+            int from = Math.max(1, i - limit);
+            int to = Math.min(n, i + limit);
+            cur[0] = i <= limit ? i : big;
+            if (from > 1) cur[from - 1] = big;
+            int rowMin = cur[0];
+            char ca = a.charAt(i - 1);
+            for (int j = from; j <= to; j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1), prev[j - 1] + cost);
+                cur[j] = Math.min(d, big);
+                rowMin = Math.min(rowMin, cur[j]);
+            }
+            if (to < n) cur[to + 1] = big;
+            if (rowMin > limit) return -1;
+            int[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+        return prev[n] <= limit ? prev[n] : -1;
+    }
+}
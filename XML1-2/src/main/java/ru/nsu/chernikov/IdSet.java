@@ -0,0 +1,144 @@
+package ru.nsu.chernikov;
+
+import java.util.Arrays;
+
+/**
+ * Компактное множество ID людей в виде отсортированного массива номеров
+ * из {@link IdTable}. Пустое множество не занимает отдельного массива;
+ * для типичных небольших наборов родственников это дешевле HashSet&lt;String&gt;
+ * и не дублирует строки ID. Номера имеют смысл только в своей таблице,
+ * поэтому множества разных таблиц не смешиваются.
+ */
+final class IdSet {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final IdTable table;
+    private int[] indexes = EMPTY;
+    private int size;
+
+    IdSet(IdTable table) {
+        this.table = table;
+    }
+
+    /** Таблица, из которой взяты номера. */
+    IdTable table() {
+        return table;
+    }
+
+    void add(String id) {
+        add(table.intern(id));
+    }
+
+    void add(int index) {
+        int pos = Arrays.binarySearch(indexes, 0, size, index);
+        if (pos >= 0) return;
+        pos = -pos - 1;
+        if (size == indexes.length) {
+            indexes = Arrays.copyOf(indexes, Math.max(4, size * 2));
+        }
+        System.arraycopy(indexes, pos, indexes, pos + 1, size - pos);
+        indexes[pos] = index;
+        size++;
+    }
+
+    void addAll(IdSet other) {
+        if (other.size == 0) return;
+        if (other.table != table) throw new IllegalArgumentException("множества из разных таблиц ID");
+        if (size == 0) {
+            indexes = Arrays.copyOf(other.indexes, other.size);
+            size = other.size;
+            return;
+        }
+        // слияние двух отсортированных массивов
+        int[] merged = new int[size + other.size];
+        int i = 0, j = 0, n = 0;
+        while (i < size && j < other.size) {
+            int a = indexes[i], b = other.indexes[j];
+            if (a < b) { merged[n++] = a; i++; }
+            else if (a > b) { merged[n++] = b; j++; }
+            else { merged[n++] = a; i++; j++; }
+        }
+        while (i < size) merged[n++] = indexes[i++];
+        while (j < other.size) merged[n++] = other.indexes[j++];
+        indexes = merged;
+        size = n;
+    }
+
+    boolean contains(int index) {
+        return Arrays.binarySearch(indexes, 0, size, index) >= 0;
+    }
+
+    boolean contains(String id) {
+        int index = table.indexOf(id);
+        return index >= 0 && contains(index);
+    }
+
+    /** Есть ли общий элемент; слияние двух отсортированных массивов. */
+    boolean intersects(IdSet other) {
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            int a = indexes[i], b = other.indexes[j];
+            if (a == b) return true;
+            if (a < b) i++;
+            else j++;
+        }
+        return false;
+    }
+
+    /**
+     * Номера элементов в порядке строк ID. Номера раздаются в порядке первого
+     * появления ID, а при параллельном разборе этот порядок зависит от
+     * планирования потоков, поэтому всё, что попадает в результат, обходит
+     * множество так, а не по get(i).
+     */
+    int[] idOrder() {
+        int[] order = Arrays.copyOf(indexes, size);
+        if (size > 16) {
+            Integer[] boxed = new Integer[size];
+            for (int i = 0; i < size; i++) boxed[i] = order[i];
+            Arrays.sort(boxed, (a, b) -> table.idOf(a).compareTo(table.idOf(b)));
+            for (int i = 0; i < size; i++) order[i] = boxed[i];
+            return order;
+        }
+        // вставками: у большинства людей родственников единицы
+        for (int i = 1; i < size; i++) {
+            int index = order[i];
+            String id = table.idOf(index);
+            int j = i - 1;
+            while (j >= 0 && table.idOf(order[j]).compareTo(id) > 0) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = index;
+        }
+        return order;
+    }
+
+    /** Номер i-го элемента (в порядке возрастания номеров). */
+    int get(int i) {
+        return indexes[i];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(table.idOf(indexes[i]));
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,60 @@
+package ru.nsu.chernikov;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Таблица интернирования ID людей: каждому строковому ID ("P123456")
+ * ставится в соответствие плотный номер 0, 1, 2, ... Номера используются
+ * в {@link IdSet} и как индексы массивов вместо HashMap&lt;String, ...&gt;.
+ * Таблица своя у каждого объединения: массивы, индексируемые номерами,
+ * занимают место только под ID своего файла, даже когда пакетный режим
+ * обрабатывает несколько файлов одновременно, а после объединения таблица
+ * уходит вместе с результатом. Таблица растёт и безопасна для вызова из
+ * нескольких потоков (параллельный разбор).
+ */
+final class IdTable {
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private final ConcurrentHashMap<String, Integer> indexById = new ConcurrentHashMap<>();
+    private volatile String[][] pages = new String[16][];
+    private volatile int size;
+
+    /** Номер ID; при первом обращении ID добавляется в таблицу. */
+    int intern(String id) {
+        Integer index = indexById.get(id);
+        return index != null ? index : indexById.computeIfAbsent(id, this::append);
+    }
+
+    /** Номер ID или -1, если такой ID ещё не встречался. */
+    int indexOf(String id) {
+        Integer index = indexById.get(id);
+        return index != null ? index : -1;
+    }
+
+    String idOf(int index) {
+        return pages[index >>> PAGE_BITS][index & (PAGE_SIZE - 1)];
+    }
+
+    /** Количество выданных номеров (верхняя граница индексов для массивов). */
+    int size() {
+        return size;
+    }
+
+    private synchronized int append(String id) {
+        int index = size;
+        int page = index >>> PAGE_BITS;
+        String[][] current = pages;
+        if (page == current.length) {
+            String[][] grown = new String[current.length * 2][];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            current = grown;
+        }
+        if (current[page] == null) current[page] = new String[PAGE_SIZE];
+        current[page][index & (PAGE_SIZE - 1)] = id;
+        pages = current;
+        size = index + 1;
+        return index;
+    }
+}
@@ -0,0 +1,513 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Быстрый разбор без StAX: файл отображается в память через
+ * {@link FileChannel#map}, байты UTF-8 просматриваются напрямую, а имена
+ * элементов и атрибутов сравниваются с известным словарём без создания строк.
+ * Обработка распознанных тегов общая с {@link CursorFragmentParser}, поэтому
+ * фрагменты получаются теми же, что и при разборе через StAX.
+ * <p>
+ * Поддерживается подмножество XML, встречающееся во входных файлах: элементы,
+ * атрибуты, текст, CDATA, комментарии, инструкции обработки, встроенные
+ * сущности и ссылки на символы. Если в файле есть DOCTYPE (он может объявлять
+ * сущности), кодировка отлична от UTF-8/ASCII или файл больше 2 ГБ,
+ * {@link #parse} возвращает false до выдачи первого фрагмента, и вызывающий
+ * разбирает файл через StAX.
+ */
+final class MappedFragmentParser extends CursorFragmentParser {
+
+    // Словарь элементов по длине имени: имена в байтах и соответствующие теги
+    private static final byte[][][] TAG_NAMES = new byte[32][][];
+    private static final Tag[][] TAG_VALUES = new Tag[32][];
+
+    static {
+        for (Tag tag : Tag.values()) {
+            for (String name : tag.names) {
+                int len = name.length();
+                byte[][] names = TAG_NAMES[len] == null ? new byte[0][] : TAG_NAMES[len];
+                Tag[] tags = TAG_VALUES[len] == null ? new Tag[0] : TAG_VALUES[len];
+                names = Arrays.copyOf(names, names.length + 1);
+                tags = Arrays.copyOf(tags, tags.length + 1);
+                names[names.length - 1] = name.getBytes(StandardCharsets.US_ASCII);
+                tags[tags.length - 1] = tag;
+                TAG_NAMES[len] = names;
+                TAG_VALUES[len] = tags;
+            }
+        }
+    }
+
+    private static final Attr[] ATTR_VALUES = Attr.values();
+    private static final byte[][] ATTR_NAMES = new byte[ATTR_VALUES.length][];
+
+    static {
+        for (int i = 0; i < ATTR_VALUES.length; i++) {
+            ATTR_NAMES[i] = ATTR_VALUES[i].name().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final ByteBuffer buf;
+    private final int limit;
+    private final long baseOffset;    // смещение buf[0] в файле, для сообщений об ошибках
+    private int pos;
+
+    // стек открытых элементов: начало и длина полного имени, тег
+    private int[] nameStart = new int[16];
+    private int[] nameLength = new int[16];
+    private Tag[] tags = new Tag[16];
+    private int depth;
+    private final int rootDepth;      // глубина, на которой кончается разбираемый диапазон
+    private boolean seenRoot;
+
+    private char[] value = new char[64];   // буфер значения атрибута
+    private int valueLength;
+    private final char[] skipped = new char[2];   // сущности в тексте, который не накапливается
+
+    private MappedFragmentParser(ByteBuffer buf, long baseOffset, int rootDepth,
+                                 IdTable ids, Consumer<PersonInfo> fragments) {
+        super(ids, fragments);
+        this.buf = buf;
+        this.limit = buf.limit();
+        this.baseOffset = baseOffset;
+        this.rootDepth = rootDepth;
+        this.depth = rootDepth;
+        this.seenRoot = rootDepth > 0;
+    }
+
+    /**
+     * Разбирает файл целиком. Возвращает false, если файл не подходит для
+     * быстрого разбора; в этом случае ни один фрагмент ещё не выдан.
+     */
+    static boolean parse(File file, IdTable ids,
+                         Consumer<PersonInfo> fragments) throws IOException, XMLStreamException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file.getPath()), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) return false;
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            MappedFragmentParser parser = new MappedFragmentParser(buf, 0, 0, ids, fragments);
+            return parser.prolog() && parser.run();
+        }
+    }
+
+    /**
+     * Разбирает диапазон [start, end) файла, лежащий целиком внутри корневого
+     * элемента (кусок из {@link ParallelFragmentParser}). Файл должен быть без
+     * DOCTYPE и в кодировке UTF-8 или ASCII.
+     */
+    static void parseRange(File file, long start, long end, IdTable ids, Consumer<PersonInfo> fragments)
+            throws IOException, XMLStreamException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file.getPath()), StandardOpenOption.READ)) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            new MappedFragmentParser(buf, start, 1, ids, fragments).run();
+        }
+    }
+
+    /** Проверяет метку порядка байтов и объявление XML; false – нужен разбор через StAX. */
+    private boolean prolog() throws XMLStreamException {
+        if (limit >= 2) {
+            int b0 = buf.get(0) & 0xFF, b1 = buf.get(1) & 0xFF;
+            if (b0 == 0xFE || b0 == 0xFF || b0 == 0 || b1 == 0) return false;   // UTF-16/32
+        }
+        if (limit >= 3 && (buf.get(0) & 0xFF) == 0xEF && (buf.get(1) & 0xFF) == 0xBB
+                && (buf.get(2) & 0xFF) == 0xBF) {
+            pos = 3;   // BOM UTF-8
+        }
+        if (startsWith("<?xml") && pos + 5 < limit && isSpace(buf.get(pos + 5))) {
+            int declStart = pos;
+            skipPast("?>");
+            String decl = new String(bytes(declStart, pos), StandardCharsets.US_ASCII);
+            int at = decl.indexOf("encoding");
+            if (at >= 0) {
+                int q = at + 8;
+                while (q < decl.length() && decl.charAt(q) != '"' && decl.charAt(q) != '\'') q++;
+                int close = q < decl.length() ? decl.indexOf(decl.charAt(q), q + 1) : -1;
+                if (close < 0) throw error("некорректное объявление XML");
+                String encoding = decl.substring(q + 1, close);
+                if (!encoding.equalsIgnoreCase("UTF-8") && !encoding.equalsIgnoreCase("US-ASCII")
+                        && !encoding.equalsIgnoreCase("ASCII")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean run() throws XMLStreamException {
+        while (pos < limit) {
+            if (buf.get(pos) != '<') {
+                readText();
+            } else if (startsWith("<!--")) {
+                skipPast("-->");
+            } else if (startsWith("<![CDATA[")) {
+                readCData();
+            } else if (startsWith("<?")) {
+                skipPast("?>");
+            } else if (startsWith("<!")) {
+                // DOCTYPE допустим только до корневого элемента, когда фрагментов ещё нет
+                if (!seenRoot && startsWith("<!DOCTYPE")) return false;
+                throw error("неожиданная разметка <!");
+            } else if (startsWith("</")) {
+                readEndTag();
+            } else {
+                readStartTag();
+            }
+        }
+        if (depth != rootDepth || !seenRoot) throw error("неожиданный конец файла");
+        return true;
+    }
+
+    // ---------- Теги ----------
+
+    private void readStartTag() throws XMLStreamException {
+        if (depth == 0 && seenRoot) throw error("содержимое после корневого элемента");
+        pos++;   // '<'
+        int start = pos;
+        while (pos < limit && !isSpace(buf.get(pos)) && buf.get(pos) != '>' && buf.get(pos) != '/') pos++;
+        int end = pos;
+        if (end == start) throw error("пустое имя элемента");
+        Tag tag = lookupTag(start, end);
+
+        clearAttributes();
+        boolean selfClosing = false;
+        while (true) {
+            skipSpaces();
+            if (pos >= limit) throw error("незакрытый тег");
+            byte b = buf.get(pos);
+            if (b == '>') {
+                pos++;
+                break;
+            }
+            if (b == '/') {
+                if (pos + 1 >= limit || buf.get(pos + 1) != '>') throw error("ожидался '>'");
+                pos += 2;
+                selfClosing = true;
+                break;
+            }
+            readAttribute();
+        }
+
+        push(start, end - start, tag);
+        seenRoot = true;
+        startTag(tag);
+        if (selfClosing) {
+            depth--;
+            endTag(tag);
+        }
+    }
+
+    private void readEndTag() throws XMLStreamException {
+        pos += 2;   // '</'
+        int start = pos;
+        while (pos < limit && !isSpace(buf.get(pos)) && buf.get(pos) != '>') pos++;
+        int end = pos;
+        skipSpaces();
+        if (pos >= limit || buf.get(pos) != '>') throw error("ожидался '>'");
+        pos++;
+        if (depth <= rootDepth) throw error("лишний закрывающий тег");
+        int open = depth - 1;
+        if (nameLength[open] != end - start || !regionEquals(nameStart[open], start, end - start)) {
+            throw error("закрывающий тег не соответствует открывающему");
+        }
+        depth--;
+        endTag(tags[open]);
+    }
+
+    private void readAttribute() throws XMLStreamException {
+        int start = pos;
+        while (pos < limit && buf.get(pos) != '=' && !isSpace(buf.get(pos))
+                && buf.get(pos) != '>' && buf.get(pos) != '/') pos++;
+        int end = pos;
+        if (end == start) throw error("пустое имя атрибута");
+        skipSpaces();
+        if (pos >= limit || buf.get(pos) != '=') throw error("ожидался '='");
+        pos++;
+        skipSpaces();
+        if (pos >= limit || (buf.get(pos) != '"' && buf.get(pos) != '\'')) throw error("ожидалась кавычка");
+        byte quote = buf.get(pos++);
+
+        Attr attr = lookupAttr(start, end);
+        if (attr == null) {
+            // Значение неизвестного атрибута не нужно – только ищем закрывающую кавычку
+            while (pos < limit && buf.get(pos) != quote) {
+                if (buf.get(pos) == '<') throw error("'<' в значении атрибута");
+                pos++;
+            }
+            if (pos >= limit) throw error("незакрытое значение атрибута");
+            pos++;
+            return;
+        }
+
+        valueLength = 0;
+        while (true) {
+            if (pos >= limit) throw error("незакрытое значение атрибута");
+            byte b = buf.get(pos);
+            if (b == quote) {
+                pos++;
+                break;
+            }
+            if (b == '<') throw error("'<' в значении атрибута");
+            reserveValue(2);
+            if (b == '&') {
+                valueLength = readReference(value, valueLength);
+            } else if (b == '\r' || b == '\n' || b == '\t') {
+                // Нормализация значения атрибута: перевод строки и табуляция – пробел, \r\n – один пробел
+                if (b == '\r' && pos + 1 < limit && buf.get(pos + 1) == '\n') pos++;
+                pos++;
+                value[valueLength++] = ' ';
+            } else if (b >= 0) {
+                pos++;
+                value[valueLength++] = (char) b;
+            } else {
+                valueLength = decodeUtf8(value, valueLength);
+            }
+        }
+        setAttribute(attr, new String(value, 0, valueLength));
+    }
+
+    // ---------- Текст ----------
+
+    private void readText() throws XMLStreamException {
+        boolean keep = collectingText();
+        while (pos < limit) {
+            byte b = buf.get(pos);
+            if (b == '<') return;
+            if (b == '&') {
+                // Буфер текста не трогаем: после закрывающего тега он ещё нужен следующим
+                if (keep) {
+                    reserveText(2);
+                    textLength = readReference(text, textLength);
+                } else {
+                    readReference(skipped, 0);
+                }
+                continue;
+            }
+            if (!keep) {
+                if (depth == 0 && !isSpace(b)) throw error("текст вне корневого элемента");
+                pos++;
+                continue;
+            }
+            reserveText(2);
+            if (b == '\r') {
+                // Нормализация переводов строк: \r\n и одиночный \r дают \n
+                if (pos + 1 < limit && buf.get(pos + 1) == '\n') pos++;
+                pos++;
+                text[textLength++] = '\n';
+            } else if (b >= 0) {
+                pos++;
+                text[textLength++] = (char) b;
+            } else {
+                textLength = decodeUtf8(text, textLength);
+            }
+        }
+    }
+
+    private void readCData() throws XMLStreamException {
+        pos += 9;   // '<![CDATA['
+        boolean keep = collectingText();
+        while (true) {
+            if (pos + 2 >= limit) throw error("незакрытая секция CDATA");
+            byte b = buf.get(pos);
+            if (b == ']' && buf.get(pos + 1) == ']' && buf.get(pos + 2) == '>') {
+                pos += 3;
+                return;
+            }
+            if (!keep) {
+                pos++;
+                continue;
+            }
+            reserveText(2);
+            if (b == '\r') {
+                if (buf.get(pos + 1) == '\n') pos++;
+                pos++;
+                text[textLength++] = '\n';
+            } else if (b >= 0) {
+                pos++;
+                text[textLength++] = (char) b;
+            } else {
+                textLength = decodeUtf8(text, textLength);
+            }
+        }
+    }
+
+    /**
+     * Разбирает ссылку на сущность или символ с позиции '&amp;' и дописывает
+     * результат в out (нужно место под 2 символа). Без DOCTYPE допустимы
+     * только встроенные сущности, как и у парсера StAX.
+     */
+    private int readReference(char[] out, int length) throws XMLStreamException {
+        int start = pos + 1;
+        int end = start;
+        while (end < limit && buf.get(end) != ';' && end - start < 12) end++;
+        if (end >= limit || buf.get(end) != ';') throw error("некорректная ссылка на сущность");
+        pos = end + 1;
+        int n = end - start;
+        if (n > 1 && buf.get(start) == '#') {
+            int codePoint = 0;
+            boolean hex = buf.get(start + 1) == 'x';
+            int i = hex ? start + 2 : start + 1;
+            if (i == end) throw error("некорректная ссылка на символ");
+            for (; i < end; i++) {
+                int digit = Character.digit(buf.get(i), hex ? 16 : 10);
+                if (digit < 0 || codePoint > 0x10FFFF) throw error("некорректная ссылка на символ");
+                codePoint = codePoint * (hex ? 16 : 10) + digit;
+            }
+            if (!Character.isValidCodePoint(codePoint)) throw error("некорректная ссылка на символ");
+            return length + Character.toChars(codePoint, out, length);
+        }
+        if (regionEquals(start, "lt", n)) out[length++] = '<';
+        else if (regionEquals(start, "gt", n)) out[length++] = '>';
+        else if (regionEquals(start, "amp", n)) out[length++] = '&';
+        else if (regionEquals(start, "apos", n)) out[length++] = '\'';
+        else if (regionEquals(start, "quot", n)) out[length++] = '"';
+        else throw error("сущность '" + new String(bytes(start, end), StandardCharsets.UTF_8) + "' не объявлена");
+        return length;
+    }
+
+    /** Декодирует многобайтовую последовательность UTF-8 с текущей позиции. */
+    private int decodeUtf8(char[] out, int length) throws XMLStreamException {
+        int b = buf.get(pos) & 0xFF;
+        int extra;
+        int codePoint;
+        if (b >= 0xF0 && b <= 0xF4) {
+            extra = 3;
+            codePoint = b & 0x07;
+        } else if (b >= 0xE0) {
+            extra = 2;
+            codePoint = b & 0x0F;
+        } else if (b >= 0xC2 && b < 0xE0) {
+            extra = 1;
+            codePoint = b & 0x1F;
+        } else {
+            throw error("некорректная последовательность UTF-8");
+        }
+        if (pos + extra >= limit) throw error("некорректная последовательность UTF-8");
+        for (int i = 1; i <= extra; i++) {
+            int next = buf.get(pos + i) & 0xFF;
+            if ((next & 0xC0) != 0x80) throw error("некорректная последовательность UTF-8");
+            codePoint = (codePoint << 6) | (next & 0x3F);
+        }
+        pos += extra + 1;
+        if (!Character.isValidCodePoint(codePoint)) throw error("некорректная последовательность UTF-8");
+        return length + Character.toChars(codePoint, out, length);
+    }
+
+    // ---------- Словарь ----------
+
+    /** Тег по локальной части имени в [start, end). */
+    private Tag lookupTag(int start, int end) {
+        int local = start;
+        for (int i = start; i < end; i++) {
+            if (buf.get(i) == ':') local = i + 1;
+        }
+        int len = end - local;
+        if (len >= TAG_NAMES.length || TAG_NAMES[len] == null) return Tag.OTHER;
+        byte[][] names = TAG_NAMES[len];
+        for (int k = 0; k < names.length; k++) {
+            if (regionEquals(local, names[k])) return TAG_VALUES[len][k];
+        }
+        return Tag.OTHER;
+    }
+
+    /** Атрибут без префикса из словаря; атрибуты с префиксом пропускаются, как и при разборе StAX. */
+    private Attr lookupAttr(int start, int end) {
+        for (int k = 0; k < ATTR_NAMES.length; k++) {
+            if (ATTR_NAMES[k].length == end - start && regionEquals(start, ATTR_NAMES[k])) return ATTR_VALUES[k];
+        }
+        return null;
+    }
+
+    // ---------- Вспомогательные ----------
+
+    private void push(int start, int length, Tag tag) {
+        if (depth == tags.length) {
+            nameStart = Arrays.copyOf(nameStart, depth * 2);
+            nameLength = Arrays.copyOf(nameLength, depth * 2);
+            tags = Arrays.copyOf(tags, depth * 2);
+        }
+        nameStart[depth] = start;
+        nameLength[depth] = length;
+        tags[depth] = tag;
+        depth++;
+    }
+
+    private void reserveValue(int n) {
+        if (valueLength + n > value.length) {
+            value = Arrays.copyOf(value, Math.max(value.length * 2, valueLength + n));
+        }
+    }
+
+    private boolean startsWith(String s) {
+        if (pos + s.length() > limit) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (buf.get(pos + i) != (byte) s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private void skipPast(String s) throws XMLStreamException {
+        byte first = (byte) s.charAt(0);
+        for (int i = pos; i + s.length() <= limit; i++) {
+            if (buf.get(i) == first) {
+                pos = i;
+                if (startsWith(s)) {
+                    pos += s.length();
+                    return;
+                }
+            }
+        }
+        throw error("не найдено '" + s + "'");
+    }
+
+    private void skipSpaces() {
+        while (pos < limit && isSpace(buf.get(pos))) pos++;
+    }
+
+    private boolean regionEquals(int start, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (buf.get(start + i) != expected[i]) return false;
+        }
+        return true;
+    }
+
+    private boolean regionEquals(int start, String expected, int length) {
+        if (length != expected.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (buf.get(start + i) != (byte) expected.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private boolean regionEquals(int a, int b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (buf.get(a + i) != buf.get(b + i)) return false;
+        }
+        return true;
+    }
+
+    private byte[] bytes(int start, int end) {
+        byte[] result = new byte[end - start];
+        for (int i = 0; i < result.length; i++) result[i] = buf.get(start + i);
+        return result;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private XMLStreamException error(String message) {
+        return new XMLStreamException("Ошибка разбора в байте " + (baseOffset + pos) + ": " + message);
+    }
+}
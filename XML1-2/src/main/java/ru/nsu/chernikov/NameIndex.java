@@ -0,0 +1,58 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Индекс "каноническое имя" -> человек. Строится один раз после объединения
+ * по ID и поддерживается в актуальном состоянии при дальнейших слияниях,
+ * поэтому поиск по имени в mergeFragments и resolveNameReferences занимает O(1).
+ * При совпадении имён у нескольких людей в индексе остаётся первый добавленный.
+ */
+class NameIndex {
+
+    private final Map<String, PersonInfo> byName = new HashMap<>();
+
+    static NameIndex build(Iterable<PersonInfo> persons) {
+        NameIndex index = new NameIndex();
+        for (PersonInfo p : persons) index.add(p);
+        return index;
+    }
+
+    void add(PersonInfo person) {
+        String name = person.getCanonicalName();
+        if (name != null) byName.putIfAbsent(name, person);
+    }
+
+    PersonInfo get(String canonicalName) {
+        return byName.get(canonicalName);
+    }
+
+    /**
+     * Объединяет фрагмент с человеком и переносит запись в индексе,
+     * если после слияния изменилось его каноническое имя.
+     */
+    void mergeInto(PersonInfo target, PersonInfo fragment) {
+        String before = target.getCanonicalName();
+        target.merge(fragment);
+        String after = target.getCanonicalName();
+        if (before != null ? !before.equals(after) : after != null) {
+            if (before != null) byName.remove(before, target);
+            add(target);
+        }
+    }
+
+    /**
+     * Присоединяет фрагмент без ID к человеку, найденному по имени фрагмента через get.
+     * Здесь то же, что mergeInto; нечёткий индекс сохраняет написание имени.
+     */
+    void attach(PersonInfo target, PersonInfo fragment) {
+        mergeInto(target, fragment);
+    }
+
+    int size() {
+        return byName.size();
+    }
+}
@@ -0,0 +1,339 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Параллельный разбор входного файла: файл делится на куски по границам
+ * &lt;person&gt; верхнего уровня, каждый кусок разбирается отдельно в пуле
+ * fork-join, а списки фрагментов склеиваются в исходном порядке.
+ */
+class ParallelFragmentParser {
+
+    private static final long MIN_CHUNK_BYTES = 1L << 20;   // 1 МБ
+    private static final long MAX_CHUNK_BYTES = 64L << 20;  // 64 МБ
+
+    private final int parallelism;
+    private final PersonDataAggregator.ParserEngine engine;
+    private final long minChunkBytes;
+
+    ParallelFragmentParser(int parallelism, PersonDataAggregator.ParserEngine engine) {
+        this(parallelism, engine, MIN_CHUNK_BYTES);
+    }
+
+    /** minChunkBytes – нижняя граница размера куска; тесты задают её маленькой, чтобы получить много кусков. */
+    ParallelFragmentParser(int parallelism, PersonDataAggregator.ParserEngine engine, long minChunkBytes) {
+        this.parallelism = Math.max(1, parallelism);
+        this.engine = engine;
+        this.minChunkBytes = Math.max(1, minChunkBytes);
+    }
+
+    /**
+     * Разбирает файл параллельно. Если файл нельзя безопасно разрезать
+     * (gzip, DTD, кодировка не совместима с ASCII), выполняется обычный разбор.
+     * ID родственников интернируются в ids.
+     */
+    List<PersonInfo> parse(String filename, IdTable ids) throws Exception {
+        File file = new File(filename);
+        if (PersonDataAggregator.isGzip(file)) {
+            return PersonDataAggregator.parseInput(filename, engine, ids);
+        }
+        String encoding = detectEncoding(file);
+        if (encoding.toUpperCase(Locale.ROOT).startsWith("UTF-16")
+                || encoding.toUpperCase(Locale.ROOT).startsWith("UTF-32")) {
+            return PersonDataAggregator.parseInput(filename, engine, ids);
+        }
+
+        long chunkBytes = Math.min(MAX_CHUNK_BYTES,
+                Math.max(minChunkBytes, file.length() / (parallelism * 4L)));
+        ChunkLayout layout = ChunkLayout.scan(file, chunkBytes);
+        if (layout == null) {
+            return PersonDataAggregator.parseInput(filename, engine, ids);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<List<PersonInfo>>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < layout.boundaries.length; i++) {
+                long start = layout.boundaries[i];
+                long end = layout.boundaries[i + 1];
+                tasks.add(pool.submit(() -> parseChunk(file, layout, start, end, encoding, ids)));
+            }
+
+            // Собираем результаты строго в порядке кусков, чтобы mergeFragments
+            // видел фрагменты в той же последовательности, что и при обычном разборе
+            List<PersonInfo> fragments = new ArrayList<>();
+            for (ForkJoinTask<List<PersonInfo>> task : tasks) {
+                fragments.addAll(task.join());
+            }
+            return fragments;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private List<PersonInfo> parseChunk(File file, ChunkLayout layout, long start, long end,
+                                        String encoding, IdTable ids) throws Exception {
+        if (engine == PersonDataAggregator.ParserEngine.MAPPED
+                && (encoding.equalsIgnoreCase("UTF-8") || encoding.equalsIgnoreCase("US-ASCII"))) {
+            // Кусок лежит внутри корневого элемента, DOCTYPE в файле нет – оборачивать не нужно
+            List<PersonInfo> fragments = new ArrayList<>();
+            MappedFragmentParser.parseRange(file, start, end, ids, fragments::add);
+            return fragments;
+        }
+        // Кусок оборачивается в копию корневого тега, чтобы объявления
+        // пространств имён остались видны парсеру
+        try (InputStream in = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(layout.rootStartTag),
+                new BufferedInputStream(new FileRangeInputStream(file, start, end), 1 << 16),
+                new ByteArrayInputStream(("</" + layout.rootName + ">").getBytes(StandardCharsets.US_ASCII)))))) {
+            List<PersonInfo> fragments = new ArrayList<>();
+            PersonDataAggregator.parseFragments(in, encoding, engine, ids, fragments::add);
+            return fragments;
+        }
+    }
+
+    private static String detectEncoding(File file) throws Exception {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            XMLStreamReader reader = PersonDataAggregator.inputFactory().createXMLStreamReader(in);
+            String encoding = reader.getEncoding();
+            reader.close();
+            return encoding != null ? encoding : "UTF-8";
+        }
+    }
+
+    // ---------- Поиск границ кусков ----------
+
+    /**
+     * Раскладка файла на куски: копия корневого открывающего тега и смещения,
+     * по которым файл режется. Первая граница — сразу после корневого тега,
+     * последняя — начало закрывающего корневого тега.
+     */
+    static final class ChunkLayout {
+        final byte[] rootStartTag;
+        final String rootName;
+        final long[] boundaries;
+
+        private ChunkLayout(byte[] rootStartTag, String rootName, long[] boundaries) {
+            this.rootStartTag = rootStartTag;
+            this.rootName = rootName;
+            this.boundaries = boundaries;
+        }
+
+        /**
+         * Один линейный проход по байтам файла с учётом комментариев, CDATA и
+         * инструкций обработки. Возвращает null, если встречен DOCTYPE.
+         */
+        static ChunkLayout scan(File file, long chunkBytes) throws IOException {
+            try (ByteScanner in = new ByteScanner(file)) {
+                List<Long> boundaries = new ArrayList<>();
+                ByteArrayOutputStream rootTag = null;
+                String rootName = null;
+                long rootEnd = -1;
+                int depth = 0;
+
+                while (true) {
+                    if (!in.skipTo('<')) break;
+                    long tagStart = in.offset();
+                    if (in.startsWith("<!--")) {
+                        in.skipPast("-->");
+                    } else if (in.startsWith("<![CDATA[")) {
+                        in.skipPast("]]>");
+                    } else if (in.startsWith("<?")) {
+                        in.skipPast("?>");
+                    } else if (in.startsWith("<!")) {
+                        return null; // DOCTYPE может объявлять сущности – режем только простые файлы
+                    } else if (in.startsWith("</")) {
+                        depth--;
+                        if (depth == 0) {
+                            rootEnd = tagStart;
+                            break;
+                        }
+                        in.skipPast(">");
+                    } else {
+                        ByteArrayOutputStream copy = depth == 0 ? new ByteArrayOutputStream() : null;
+                        String name = in.readStartTag(copy);
+                        boolean selfClosing = in.lastTagSelfClosing();
+                        if (depth == 0) {
+                            if (selfClosing) return new ChunkLayout(new byte[0], name, new long[0]);
+                            rootTag = copy;
+                            rootName = name;
+                            boundaries.add(in.offset());
+                        } else if (depth == 1 && "person".equals(localPart(name))
+                                && tagStart - boundaries.get(boundaries.size() - 1) >= chunkBytes) {
+                            boundaries.add(tagStart);
+                        }
+                        if (!selfClosing) depth++;
+                    }
+                }
+
+                if (rootTag == null || rootEnd < 0) return null;
+                boundaries.add(rootEnd);
+                long[] result = new long[boundaries.size()];
+                for (int i = 0; i < result.length; i++) result[i] = boundaries.get(i);
+                return new ChunkLayout(rootTag.toByteArray(), rootName, result);
+            }
+        }
+
+        private static String localPart(String qName) {
+            int colon = qName.indexOf(':');
+            return colon < 0 ? qName : qName.substring(colon + 1);
+        }
+    }
+
+    /**
+     * Буферизованный побайтовый сканер с заглядыванием вперёд.
+     */
+    private static final class ByteScanner implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        private final byte[] buf = buffer.array();
+        private long base;      // смещение buf[0] в файле
+        private int pos;
+        private int limit;
+        private boolean eof;
+        private boolean selfClosing;
+
+        ByteScanner(File file) throws IOException {
+            channel = FileChannel.open(Paths.get(file.getPath()), StandardOpenOption.READ);
+        }
+
+        long offset() {
+            return base + pos;
+        }
+
+        /** Гарантирует, что в буфере доступно не меньше n байт (если файл не кончился). */
+        private boolean ensure(int n) throws IOException {
+            while (limit - pos < n && !eof) {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                base += pos;
+                limit -= pos;
+                pos = 0;
+                buffer.clear().position(limit);
+                int read = channel.read(buffer);
+                if (read < 0) eof = true;
+                else limit += read;
+            }
+            return limit - pos >= n;
+        }
+
+        /** Сдвигается к следующему байту b, не пропуская его. */
+        boolean skipTo(char b) throws IOException {
+            while (true) {
+                for (int i = pos; i < limit; i++) {
+                    if (buf[i] == b) {
+                        pos = i;
+                        return true;
+                    }
+                }
+                pos = limit;
+                if (!ensure(1)) return false;
+            }
+        }
+
+        boolean startsWith(String s) throws IOException {
+            if (!ensure(s.length())) return false;
+            for (int i = 0; i < s.length(); i++) {
+                if (buf[pos + i] != s.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        /** Пропускает всё до конца последовательности s включительно. */
+        void skipPast(String s) throws IOException {
+            while (ensure(s.length())) {
+                if (startsWith(s)) {
+                    pos += s.length();
+                    return;
+                }
+                pos++;
+            }
+            pos = limit;
+        }
+
+        /**
+         * Читает открывающий тег целиком (кавычки в значениях атрибутов учитываются),
+         * при необходимости копируя его байты. Возвращает имя элемента.
+         */
+        String readStartTag(ByteArrayOutputStream copy) throws IOException {
+            StringBuilder name = new StringBuilder();
+            boolean inName = true;
+            int quote = 0;
+            int prev = 0;
+            pos++; // '<'
+            if (copy != null) copy.write('<');
+            while (ensure(1)) {
+                int b = buf[pos++];
+                if (copy != null) copy.write(b);
+                if (quote != 0) {
+                    if (b == quote) quote = 0;
+                } else if (b == '"' || b == '\'') {
+                    quote = b;
+                } else if (b == '>') {
+                    selfClosing = prev == '/';
+                    return name.toString();
+                } else if (inName) {
+                    if (b == '/' || Character.isWhitespace(b)) inName = false;
+                    else name.append((char) (b & 0xFF));
+                }
+                prev = b;
+            }
+            selfClosing = false;
+            return name.toString();
+        }
+
+        boolean lastTagSelfClosing() {
+            return selfClosing;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Поток, читающий диапазон [start, end) файла позиционным чтением.
+     */
+    private static final class FileRangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        FileRangeInputStream(File file, long start, long end) throws IOException {
+            this.channel = FileChannel.open(Paths.get(file.getPath()), StandardOpenOption.READ);
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) return -1;
+            int n = (int) Math.min(len, end - position);
+            int read = channel.read(ByteBuffer.wrap(b, off, n), position);
+            if (read > 0) position += read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ru.nsu.chernikov;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Многопоточное сжатие gzip по блокам, как в pigz. Данные режутся на блоки
+ * по {@link #BLOCK_SIZE} байт, каждый блок сжимается в пуле потоков в
+ * отдельный член gzip (заголовок, deflate, CRC32 и длина), а члены
+ * записываются в исходном порядке. Склейка членов – корректный файл gzip
+ * (RFC 1952), его читают gunzip и {@link java.util.zip.GZIPInputStream}.
+ * <p>
+ * Пока сжимаются не больше 2·threads блоков; запись следующего блока
+ * ждёт, пока самый старый будет сжат и записан, так что память ограничена,
+ * а запись в файл идёт одновременно со сжатием.
+ */
+class ParallelGzipOutputStream extends OutputStream {
+
+    static final int BLOCK_SIZE = 1 << 20;
+
+    private final OutputStream out;
+    private final ExecutorService pool;
+    private final int maxInFlight;
+    private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int length;
+    private boolean written;
+    private boolean closed;
+
+    ParallelGzipOutputStream(OutputStream out, int threads) {
+        this.out = out;
+        int n = Math.max(1, threads);
+        this.pool = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "gzip");
+            t.setDaemon(true);
+            return t;
+        });
+        this.maxInFlight = 2 * n;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (length == BLOCK_SIZE) submit();
+        block[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (length == BLOCK_SIZE) submit();
+            int n = Math.min(len, BLOCK_SIZE - length);
+            System.arraycopy(b, off, block, length, n);
+            length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Блок не сжимается раньше времени: член gzip на каждый flush испортил бы
+     * степень сжатия, а читателю нужен только полный файл.
+     */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            // Пустой вывод – один пустой член, чтобы файл оставался корректным gzip
+            if (length > 0 || !written) submit();
+            while (!inFlight.isEmpty()) writeOldest();
+            out.flush();
+        } finally {
+            pool.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void submit() throws IOException {
+        byte[] data = block;
+        int size = length;
+        inFlight.add(pool.submit(() -> compress(data, size)));
+        written = true;
+        block = new byte[BLOCK_SIZE];
+        length = 0;
+        while (inFlight.size() >= maxInFlight) writeOldest();
+    }
+
+    private void writeOldest() throws IOException {
+        try {
+            out.write(inFlight.remove().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Сжатие прервано", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Ошибка сжатия блока", e.getCause());
+        }
+    }
+
+    private static byte[] compress(byte[] data, int size) throws IOException {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(size / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(member, 1 << 16)) {
+            gzip.write(data, 0, size);
+        }
+        return member.toByteArray();
+    }
+}
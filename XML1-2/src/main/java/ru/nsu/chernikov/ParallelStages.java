@@ -0,0 +1,103 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.Person;
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+import ru.nsu.chernikov.PersonDataAggregator.Persons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+
+/**
+ * Параллельное выполнение этапов, обрабатывающих каждого человека
+ * независимо: разрешения имён, проверки маркеров и обоих проходов
+ * convertToJAXB. Люди из объединённой карты раскладываются в массив в
+ * порядке её обхода, массив делится на непрерывные диапазоны, а диапазоны
+ * обрабатываются в пуле fork-join. Результат convertToJAXB собирается по
+ * позициям массива, поэтому порядок вывода тот же, что и при
+ * последовательной обработке.
+ * <p>
+ * Пул один на экземпляр: создаётся при первом этапе, которому он нужен, и
+ * останавливается {@link #shutdown()} после всех этапов.
+ * <p>
+ * Каждая задача изменяет только своих людей; индекс имён и карта людей
+ * на этих этапах только читаются, а таблица ID объединения и {@link RunReport}
+ * допускают вызов из нескольких потоков.
+ */
+class ParallelStages {
+
+    private static final int MIN_RANGE = 1024;
+
+    private final int parallelism;
+    private ForkJoinPool pool;
+
+    ParallelStages(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    void resolveNameReferences(Map<String, PersonInfo> persons, NameIndex nameIndex) {
+        PersonInfo[] infos = toArray(persons);
+        forEach(infos.length, i -> PersonDataAggregator.resolvePerson(infos[i],
+                name -> PersonDataAggregator.idByName(nameIndex, name)));
+    }
+
+    void validate(Map<String, PersonInfo> persons) {
+        PersonInfo[] infos = toArray(persons);
+        forEach(infos.length, i -> PersonDataAggregator.validatePerson(infos[i]));
+    }
+
+    Persons convertToJAXB(Map<String, PersonInfo> persons, IdTable ids) {
+        PersonInfo[] infos = toArray(persons);
+        forEach(infos.length, i -> ids.intern(infos[i].id));
+        Person[] personObjects = new Person[ids.size()];
+
+        // Первый проход: объекты Person на своих позициях
+        Person[] ordered = new Person[infos.length];
+        forEach(infos.length, i -> {
+            Person p = PersonDataAggregator.newPerson(infos[i]);
+            ordered[i] = p;
+            personObjects[ids.indexOf(infos[i].id)] = p;
+        });
+
+        // Второй проход начинается после того, как созданы все объекты
+        forEach(infos.length, i -> PersonDataAggregator.linkPerson(infos[i], ids, personObjects));
+
+        Persons root = new Persons();
+        root.getPersons().addAll(Arrays.asList(ordered));
+        return root;
+    }
+
+    private static PersonInfo[] toArray(Map<String, PersonInfo> persons) {
+        return persons.values().toArray(new PersonInfo[0]);
+    }
+
+    /** Вызывает action для 0..n-1 диапазонами в пуле и ждёт завершения всех. */
+    private void forEach(int n, IntConsumer action) {
+        if (parallelism == 1 || n <= MIN_RANGE) {
+            for (int i = 0; i < n; i++) action.accept(i);
+            return;
+        }
+        int range = Math.max(MIN_RANGE, (n + parallelism * 4 - 1) / (parallelism * 4));
+        if (pool == null) pool = new ForkJoinPool(parallelism);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int start = 0; start < n; start += range) {
+            int from = start;
+            int to = Math.min(n, start + range);
+            tasks.add(pool.submit(() -> {
+                for (int i = from; i < to; i++) action.accept(i);
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    /** Останавливает пул, если он создавался; этапы после этого не вызываются. */
+    void shutdown() {
+        if (pool != null) pool.shutdown();
+    }
+}
@@ -9,6 +9,10 @@ import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Выполняет разбор "грязного" XML-файла с фрагментами записей о людях,
@@ -18,7 +22,7 @@ import java.util.*;
 public class PersonDataAggregator {
 
     // ---------- Внутренняя структура для накопления данных ----------
-    private static class PersonInfo {
+    static class PersonInfo {
         String id;                      // официальный идентификатор (например, "P123456")
         String firstName;                // имя
         String lastName;                  // фамилия
@@ -27,9 +31,9 @@ public class PersonDataAggregator {
         String spouseName;                // имя супруга(и), если задано текстом
         String motherName;                // имя матери
         String fatherName;                // имя отца
-        Set<String> parents = new HashSet<>();      // ID родителей
-        Set<String> children = new HashSet<>();     // ID детей
-        Set<String> siblings = new HashSet<>();     // ID братьев/сестёр
+        final IdSet parents;              // ID родителей (номера из IdTable объединения)
+        final IdSet children;             // ID детей
+        final IdSet siblings;             // ID братьев/сестёр
         Integer childrenCountMarker;      // маркер из <children-number value="..."/>
         Integer siblingsCountMarker;      // маркер из <siblings-number value="..."/>
         Set<String> unresolvedChildNames;   // неразрешённые имена детей (будут преобразованы позже)
@@ -39,10 +43,23 @@ public class PersonDataAggregator {
         // Для объединения по имени (временное поле)
         String canonicalName;             // нормализованное полное имя
 
+        /** Фрагмент, ID родственников которого интернируются в ids. */
+        PersonInfo(IdTable ids) {
+            parents = new IdSet(ids);
+            children = new IdSet(ids);
+            siblings = new IdSet(ids);
+        }
+
+        /** Таблица ID, в которой хранятся родственники. */
+        IdTable ids() {
+            return parents.table();
+        }
+
         /**
          * Объединить данные другого фрагмента с текущим (для одного человека).
          */
         void merge(PersonInfo other) {
+            if (other.firstName != null || other.lastName != null) canonicalName = null;
             if (other.firstName != null) firstName = other.firstName;
             if (other.lastName != null) lastName = other.lastName;
             if (other.gender != null) gender = other.gender;
@@ -68,18 +85,138 @@ public class PersonDataAggregator {
         /**
          * Вычисляет нормализованное полное имя (обрезает пробелы,
          * заменяет множественные пробелы одним) для сопоставления.
+         * Результат кэшируется до следующего изменения имени через merge().
          */
         String getCanonicalName() {
             if (canonicalName != null) return canonicalName;
-            String fn = firstName == null ? "" : firstName.trim().replaceAll("\\s+", " ");
-            String ln = lastName == null ? "" : lastName.trim().replaceAll("\\s+", " ");
+            String fn = firstName == null ? "" : collapseSpaces(firstName.trim());
+            String ln = lastName == null ? "" : collapseSpaces(lastName.trim());
             if (fn.isEmpty() && ln.isEmpty()) return null;
-            if (fn.isEmpty()) return ln;
-            if (ln.isEmpty()) return fn;
-            return fn + " " + ln;
+            if (fn.isEmpty()) canonicalName = ln;
+            else if (ln.isEmpty()) canonicalName = fn;
+            else canonicalName = fn + " " + ln;
+            return canonicalName;
+        }
+
+        /** Эквивалент s.replaceAll("\\s+", " ") без регулярного выражения. */
+        private static String collapseSpaces(String s) {
+            StringBuilder sb = null;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                boolean space = c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+                if (space && (c != ' ' || (i + 1 < s.length() && isSpace(s.charAt(i + 1))))) {
+                    if (sb == null) sb = new StringBuilder(s.length()).append(s, 0, i);
+                    sb.append(' ');
+                    while (i + 1 < s.length() && isSpace(s.charAt(i + 1))) i++;
+                } else if (sb != null) {
+                    sb.append(c);
+                }
+            }
+            return sb == null ? s : sb.toString();
+        }
+
+        private static boolean isSpace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+        }
+
+        /**
+         * Двоичная запись всех полей фрагмента (для сброса на диск и снимков состояния).
+         */
+        void writeTo(DataOutput out) throws IOException {
+            writeString(out, id);
+            writeString(out, firstName);
+            writeString(out, lastName);
+            writeString(out, gender);
+            writeString(out, spouseId);
+            writeString(out, spouseName);
+            writeString(out, motherName);
+            writeString(out, fatherName);
+            writeIds(out, parents);
+            writeIds(out, children);
+            writeIds(out, siblings);
+            out.writeInt(childrenCountMarker == null ? -1 : childrenCountMarker);
+            out.writeBoolean(childrenCountMarker != null);
+            out.writeInt(siblingsCountMarker == null ? -1 : siblingsCountMarker);
+            out.writeBoolean(siblingsCountMarker != null);
+            writeSet(out, unresolvedChildNames);
+            writeSet(out, unresolvedSiblingNames);
+        }
+
+        static PersonInfo readFrom(DataInput in, IdTable ids) throws IOException {
+            PersonInfo p = new PersonInfo(ids);
+            p.id = readString(in);
+            p.firstName = readString(in);
+            p.lastName = readString(in);
+            p.gender = readString(in);
+            p.spouseId = readString(in);
+            p.spouseName = readString(in);
+            p.motherName = readString(in);
+            p.fatherName = readString(in);
+            readIds(in, p.parents);
+            readIds(in, p.children);
+            readIds(in, p.siblings);
+            int childrenCount = in.readInt();
+            if (in.readBoolean()) p.childrenCountMarker = childrenCount;
+            int siblingsCount = in.readInt();
+            if (in.readBoolean()) p.siblingsCountMarker = siblingsCount;
+            p.unresolvedChildNames = readSet(in, null);
+            p.unresolvedSiblingNames = readSet(in, null);
+            return p;
+        }
+
+        private static void writeString(DataOutput out, String s) throws IOException {
+            if (s == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = s.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(DataInput in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) return null;
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, java.nio.charset.StandardCharsets.UTF_8);
+        }
+
+        // ID пишутся строками: номера в IdTable действительны только внутри процесса
+        private static void writeIds(DataOutput out, IdSet ids) throws IOException {
+            out.writeInt(ids.size());
+            for (int index : ids.idOrder()) writeString(out, ids.table().idOf(index));
+        }
+
+        private static void readIds(DataInput in, IdSet target) throws IOException {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) target.add(readString(in));
+        }
+
+        private static void writeSet(DataOutput out, Set<String> set) throws IOException {
+            out.writeInt(set == null ? -1 : set.size());
+            if (set != null) {
+                for (String s : set) writeString(out, s);
+            }
+        }
+
+        /** Читает множество в target; если target == null, создаёт новое (или возвращает null). */
+        private static Set<String> readSet(DataInput in, Set<String> target) throws IOException {
+            int size = in.readInt();
+            if (size < 0) return target;
+            Set<String> set = target != null ? target : new HashSet<>();
+            for (int i = 0; i < size; i++) set.add(readString(in));
+            return set;
         }
     }
 
+    /** Движок разбора входного XML. */
+    enum ParserEngine {
+        EVENT,   // XMLEventReader – исходный событийный разбор
+        CURSOR,  // XMLStreamReader – курсорный разбор без объектов-событий
+        MAPPED   // отображённый в память файл без StAX; при неподдерживаемых конструкциях – CURSOR
+    }
+
     // ---------- Классы для JAXB (выходной XML) ----------
     @XmlRootElement(name = "persons")
     @XmlAccessorType(XmlAccessType.FIELD)
@@ -179,40 +316,391 @@ public class PersonDataAggregator {
 
     // ---------- Главный метод ----------
     public static void main(String[] args) throws Exception {
-        if (args.length < 2) {
-            System.err.println("Использование: java PersonDataAggregator <входной.xml> <выходной.xml> [схема.xsd]");
+        // Опции вида --имя или --имя=значение, остальные аргументы позиционные
+        Map<String, String> options = new HashMap<>();
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) options.put(arg.substring(2), "");
+                else options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            } else {
+                positional.add(arg);
+            }
+        }
+        if (positional.size() < 2) {
+            System.err.println("Использование: java PersonDataAggregator [опции] <входной.xml> <выходной.xml> [схема.xsd]");
+            System.err.println("  Входной файл может быть сжат gzip; выходной файл с расширением .gz сжимается на всех ядрах.");
+            System.err.println("  --parallel[=N]   параллельный разбор входного файла, разрешение имён, проверка маркеров");
+            System.err.println("                   и преобразование в JAXB на N потоках (по умолчанию – все ядра)");
+            System.err.println("  --dedup          отбрасывать точные копии фрагментов <person> ещё при разборе");
+            System.err.println("  --engine=E       движок разбора: event (по умолчанию), cursor или mapped");
+            System.err.println("  --fuzzy-names    нечёткое сопоставление имён: регистр, порядок слов, опечатки");
+            System.err.println("  --infer-relations  достроить обратные связи (родители, дети, супруги, сиблинги),");
+            System.err.println("                   группы сиблингов по общим родителям; сообщить о двух супругах и циклах предков");
+            System.err.println("  --stream-output  потоковая запись с проверкой по схеме на лету вместо JAXB");
+            System.err.println("  --external-memory[=SIZE]  объединение во внешней памяти с бюджетом SIZE (например 512m,");
+            System.err.println("                   по умолчанию 256m); вывод всегда потоковый");
+            System.err.println("  --temp-dir=DIR   каталог для временных файлов внешней памяти");
+            System.err.println("  --pipeline[=N]   конвейер: разбор одновременно с объединением, разрешение имён –");
+            System.err.println("                   с потоковой записью; N – глубина очередей в пачках (по умолчанию 16)");
+            System.err.println("  --snapshot=FILE  инкрементальный режим: загрузить состояние из FILE (если есть),");
+            System.err.println("                   разобрать только новые входные файлы (через запятую) и сохранить состояние");
+            System.err.println("  --binary-output=FILE  дополнительно записать людей в компактный двоичный файл");
+            System.err.println("                   с индексом по ID (читается BinaryPersonReader)");
+            System.err.println("  --batch          пакетный режим: вход – каталог (*.xml, *.xml.gz) или файл со списком путей,");
+            System.err.println("                   выход – каталог; файлы обрабатываются одновременно в одном процессе");
+            System.err.println("  --watch[=SEC]    следить за входным каталогом и обрабатывать новые файлы каждые SEC секунд");
+            System.err.println("                   (по умолчанию 2); готовые файлы переносятся в processed/ или failed/");
+            System.err.println("  --jobs=N         сколько файлов обрабатывать одновременно в --batch/--watch (по умолчанию – все ядра)");
+            System.err.println("  --report=FILE    записать отчёт о запуске в JSON: время и память по этапам, счётчики,");
+            System.err.println("                   предупреждения по категориям; в пакетном режиме ещё и отчёт каждого файла");
+            System.err.println("                   рядом с результатом (<имя>.report.json); с --watch отчёт каждого просмотра");
+            System.err.println("                   дописывается в FILE отдельной строкой JSON");
+            System.err.println("  --warning-samples=N  сколько примеров хранить на категорию предупреждений (по умолчанию 10)");
+            System.err.println("  --all-warnings   печатать каждое предупреждение сразу, а не только сводку");
+            System.err.println("  --jmx            показывать ход запуска через JMX (ru.nsu.chernikov:type=RunReport)");
+            return;
+        }
+        String inputFile = positional.get(0);
+        String outputFile = positional.get(1);
+        String schemaFile = positional.size() > 2 ? positional.get(2) : "person.xsd";
+
+        String samples = options.get("warning-samples");
+        RunReport.configure(samples == null || samples.isEmpty() ? 10 : Integer.parseInt(samples),
+                options.containsKey("all-warnings"));
+        boolean batch = options.containsKey("batch") || options.containsKey("watch");
+        if (options.containsKey("jmx")) {
+            RunReport.registerMBean(batch);
+        }
+        try {
+            if (batch) {
+                runBatch(inputFile, outputFile, schemaFile, options);
+            } else {
+                aggregate(inputFile, outputFile, schemaFile, options);
+            }
+        } finally {
+            // Сводка и отчёт нужны и при аварийном завершении; --watch
+            // сохраняет их сам после каждого просмотра и при завершении процесса
+            if (!options.containsKey("watch")) RunReport.printWarningSummary(System.err);
+            if (options.containsKey("report") && !options.containsKey("watch")) {
+                Map<String, String> run = new LinkedHashMap<>();
+                run.put("arguments", String.join(" ", args));
+                run.put("input", inputFile);
+                run.put("output", outputFile);
+                RunReport.writeJson(new File(options.get("report")), run);
+            }
+        }
+
+        System.out.println("Готово. Результат" + (batch ? "ы записаны в " : " записан в ") + outputFile);
+    }
+
+    /**
+     * Пакетный режим (--batch, --watch): inputFile – каталог или список
+     * файлов, outputFile – каталог результатов. См. {@link BatchRunner}.
+     */
+    private static void runBatch(String inputFile, String outputDir, String schemaFile,
+                                 Map<String, String> options) throws Exception {
+        if (options.containsKey("snapshot") || options.containsKey("binary-output")) {
+            throw new IllegalArgumentException("--snapshot и --binary-output не поддерживаются в пакетном режиме");
+        }
+        File output = new File(outputDir);
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Не удалось создать каталог " + output);
+        }
+        String jobs = options.get("jobs");
+        BatchRunner runner = new BatchRunner(options, schemaFile, output,
+                jobs == null || jobs.isEmpty() ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(jobs));
+        // Ошибка в схеме – общая для всех файлов, о ней лучше узнать сразу
+        loadSchema(schemaFile);
+        if (options.containsKey("watch")) {
+            String seconds = options.get("watch");
+            // Ctrl-C не даёт выполниться finally в main: незаконченный просмотр сохраняет обработчик
+            Runtime.getRuntime().addShutdownHook(new Thread(runner::flushReport, "watch-report"));
+            runner.watch(new File(inputFile), 1000L * (seconds.isEmpty() ? 2 : Integer.parseInt(seconds)));
+        } else {
+            runner.run(BatchRunner.listInputs(new File(inputFile)));
+        }
+        System.out.println("Обработано файлов: " + runner.processed() + ", с ошибками: " + runner.failed());
+        if (runner.failed() > 0) {
+            throw new IOException("Не удалось обработать файлов: " + runner.failed());
+        }
+    }
+
+    static void aggregate(String inputFile, String outputFile, String schemaFile,
+                          Map<String, String> options) throws Exception {
+        ParserEngine engine = ParserEngine.valueOf(options.getOrDefault("engine", "event").toUpperCase(Locale.ROOT));
+
+        if (options.containsKey("external-memory")) {
+            if (options.containsKey("binary-output")) {
+                throw new IllegalArgumentException("--binary-output не поддерживается вместе с --external-memory");
+            }
+            if (options.containsKey("fuzzy-names")) {
+                throw new IllegalArgumentException("--fuzzy-names не поддерживается вместе с --external-memory");
+            }
+            if (options.containsKey("infer-relations")) {
+                throw new IllegalArgumentException("--infer-relations не поддерживается вместе с --external-memory");
+            }
+            // Данные не держатся в памяти целиком: все этапы идут через диск
+            String budget = options.get("external-memory");
+            File tempDir = new File(options.getOrDefault("temp-dir", System.getProperty("java.io.tmpdir")));
+            RunReport.timed("external-memory", () ->
+                    new ExternalAggregation(tempDir, parseSize(budget.isEmpty() ? "256m" : budget),
+                            options.containsKey("dedup"))
+                            .run(inputFile, engine, outputFile, loadSchema(schemaFile)));
+            return;
+        }
+
+        if (options.containsKey("pipeline")) {
+            if (options.containsKey("snapshot")) {
+                throw new IllegalArgumentException("--snapshot не поддерживается вместе с --pipeline");
+            }
+            // 1–2 и 3–6 выполняются парами одновременно, связанные ограниченными очередями
+            String depth = options.get("pipeline");
+            PipelinedAggregation pipeline = new PipelinedAggregation(depth.isEmpty() ? 16 : Integer.parseInt(depth),
+                    options.containsKey("dedup"));
+            IdTable ids = new IdTable();
+            NameIndex nameIndex = newNameIndex(options);
+            Map<String, PersonInfo> personsMap = RunReport.timed("parse+merge",
+                    () -> pipeline.merge(inputFile, engine, ids, nameIndex));
+            RunReport.count(RunReport.Counter.PERSONS, personsMap.size());
+            if (options.containsKey("stream-output") && !options.containsKey("infer-relations")) {
+                // Связи достраиваются по всем людям сразу, поэтому с --infer-relations
+                // разрешение и запись идут обычными этапами
+                RunReport.timed("resolve+write",
+                        () -> pipeline.resolveAndWrite(personsMap, ids, nameIndex, outputFile, loadSchema(schemaFile)));
+                writeBinary(personsMap, ids, options);
+            } else {
+                resolveAndOutput(personsMap, ids, nameIndex, outputFile, schemaFile, options);
+            }
+            return;
+        }
+
+        if (options.containsKey("snapshot")) {
+            // 1–2 только для новых файлов поверх сохранённого состояния
+            IdTable ids = new IdTable();
+            NameIndex nameIndex = newNameIndex(options);
+            Map<String, PersonInfo> personsMap = RunReport.timed("incremental",
+                    () -> aggregateIncrementally(new File(options.get("snapshot")),
+                            Arrays.asList(inputFile.split(",")), options, engine, ids, nameIndex));
+            RunReport.count(RunReport.Counter.PERSONS, personsMap.size());
+            resolveAndOutput(personsMap, ids, nameIndex, outputFile, schemaFile, options);
             return;
         }
-        String inputFile = args[0];
-        String outputFile = args[1];
-        String schemaFile = args.length > 2 ? args[2] : "person.xsd";
 
         // 1. Разобрать все фрагменты из входного файла
-        List<PersonInfo> fragments = parseInput(inputFile);
+        IdTable ids = new IdTable();
+        List<PersonInfo> fragments = RunReport.timed("parse", () -> readFragments(inputFile, options, engine, ids));
 
         // 2. Объединить фрагменты в записи о людях (по ID или имени)
-        Map<String, PersonInfo> personsMap = mergeFragments(fragments);
+        NameIndex nameIndex = newNameIndex(options);
+        Map<String, PersonInfo> personsMap = RunReport.timed("merge", () -> mergeFragments(fragments, nameIndex));
+        RunReport.count(RunReport.Counter.PERSONS, personsMap.size());
+
+        resolveAndOutput(personsMap, ids, nameIndex, outputFile, schemaFile, options);
+    }
+
+    /**
+     * Этапы 3–6. С --parallel этапы 3–5 выполняются в пуле потоков ({@link ParallelStages});
+     * порядок вывода от этого не меняется.
+     */
+    private static void resolveAndOutput(Map<String, PersonInfo> personsMap, IdTable ids, NameIndex nameIndex,
+                                         String outputFile, String schemaFile,
+                                         Map<String, String> options) throws Exception {
+        int parallelism = parallelism(options);
+        ParallelStages parallel = parallelism > 1 ? new ParallelStages(parallelism) : null;
+        try {
+            // 3. Преобразовать текстовые имена в ID (супруги, родители, дети, сиблинги)
+            RunReport.timed("resolve", () -> {
+                if (parallel != null) parallel.resolveNameReferences(personsMap, nameIndex);
+                else resolveNameReferences(personsMap, nameIndex);
+            });
+
+            // 3а. Достроить обратные связи и группы сиблингов, найти противоречия
+            if (options.containsKey("infer-relations")) {
+                RunReport.timed("relations", () -> new RelationshipGraph(personsMap, ids).inferAndCheck());
+            }
+
+            // 4. Проверить согласованность маркеров (количество детей, сиблингов)
+            RunReport.timed("validate", () -> {
+                if (parallel != null) parallel.validate(personsMap);
+                else validate(personsMap);
+            });
+
+            if (options.containsKey("stream-output")) {
+                // 5–6. Записать людей потоково, проверяя вывод по схеме на лету
+                RunReport.timed("write", () -> StreamingPersonWriter.write(personsMap, ids, outputFile, loadSchema(schemaFile)));
+            } else {
+                // 5. Преобразовать в объекты JAXB
+                Persons root = RunReport.timed("convert",
+                        () -> parallel != null ? parallel.convertToJAXB(personsMap, ids) : convertToJAXB(personsMap, ids));
+
+                // 6. Выполнить маршаллинг с проверкой по схеме
+                RunReport.timed("marshal", () -> marshalWithValidation(root, outputFile, schemaFile));
+            }
+        } finally {
+            if (parallel != null) parallel.shutdown();
+        }
+        writeBinary(personsMap, ids, options);
+    }
+
+    /** Двоичный вывод с индексом по ID, если задан --binary-output. */
+    private static void writeBinary(Map<String, PersonInfo> personsMap, IdTable ids,
+                                    Map<String, String> options) throws IOException {
+        if (!options.containsKey("binary-output")) return;
+        RunReport.timed("binary-output",
+                () -> BinaryPersonWriter.write(personsMap, ids, new File(options.get("binary-output"))));
+    }
+
+    private static List<PersonInfo> readFragments(String inputFile, Map<String, String> options,
+                                                  ParserEngine engine, IdTable ids) throws Exception {
+        boolean dedup = options.containsKey("dedup");
+        if (options.containsKey("parallel")) {
+            List<PersonInfo> fragments = new ParallelFragmentParser(parallelism(options), engine).parse(inputFile, ids);
+            // Куски склеены в порядке файла, так что остаются те же копии, что и при обычном разборе
+            return dedup ? FragmentDeduplicator.filter(fragments) : fragments;
+        }
+        List<PersonInfo> fragments = new ArrayList<>();
+        parseInput(inputFile, engine, ids, dedup ? new FragmentDeduplicator(fragments::add) : fragments::add);
+        return fragments;
+    }
 
-        // 3. Преобразовать текстовые имена в ID (супруги, родители, дети, сиблинги)
-        resolveNameReferences(personsMap);
+    /** Число потоков из --parallel[=N]; 1, если опция не задана. */
+    private static int parallelism(Map<String, String> options) {
+        if (!options.containsKey("parallel")) return 1;
+        String n = options.get("parallel");
+        return n.isEmpty() ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(n);
+    }
 
-        // 4. Проверить согласованность маркеров (количество детей, сиблингов)
-        validate(personsMap);
+    /**
+     * Инкрементальная агрегация: из снимка загружается состояние первого
+     * прохода объединения (люди по ID и отложенные фрагменты без ID), новые
+     * файлы разбираются и добавляются к нему, снимок перезаписывается, после
+     * чего второй проход выполняется по всему состоянию. Присоединение по
+     * имени, разрешение и проверка повторяются целиком: имя из новой дельты
+     * может забрать фрагменты, которые в прошлом запуске стали отдельным
+     * человеком, так что результат совпадает с полным запуском по всем
+     * файлам подряд. Экономится разбор старых файлов. ID людей из снимка и
+     * новых файлов интернируются в ids.
+     */
+    static Map<String, PersonInfo> aggregateIncrementally(File snapshot, List<String> inputFiles,
+                                                          Map<String, String> options, ParserEngine engine,
+                                                          IdTable ids, NameIndex nameIndex) throws Exception {
+        PersonSnapshot.State state = snapshot.exists()
+                ? PersonSnapshot.load(snapshot, ids) : new PersonSnapshot.State();
+        SyntheticIds syntheticIds = new SyntheticIds(state.persons::containsKey);
+        for (String inputFile : inputFiles) {
+            for (PersonInfo frag : readFragments(inputFile, options, engine, ids)) {
+                mergeById(state.persons, state.pendingNames, frag, syntheticIds);
+            }
+        }
+        // Снимок сохраняется до второго прохода: он меняет людей и забирает отложенные фрагменты
+        PersonSnapshot.save(state, snapshot);
 
-        // 5. Преобразовать в объекты JAXB
-        Persons root = convertToJAXB(personsMap);
+        mergeByName(state.persons, state.pendingNames, nameIndex, syntheticIds);
+        return state.persons;
+    }
 
-        // 6. Выполнить маршаллинг с проверкой по схеме
-        marshalWithValidation(root, outputFile, schemaFile);
+    private static NameIndex newNameIndex(Map<String, String> options) {
+        return options.containsKey("fuzzy-names") ? new FuzzyNameIndex() : new NameIndex();
+    }
 
-        System.out.println("Готово. Результат записан в " + outputFile);
+    /** Размер в байтах из строки вида 1048576, 512k, 256m или 2g. */
+    static long parseSize(String s) {
+        s = s.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        char last = s.charAt(s.length() - 1);
+        if (last == 'k') unit = 1L << 10;
+        else if (last == 'm') unit = 1L << 20;
+        else if (last == 'g') unit = 1L << 30;
+        if (unit != 1) s = s.substring(0, s.length() - 1);
+        return Long.parseLong(s) * unit;
     }
 
     // ---------- Разбор с помощью StAX ----------
-    private static List<PersonInfo> parseInput(String filename) throws Exception {
-        XMLInputFactory factory = XMLInputFactory.newInstance();
-        XMLEventReader reader = factory.createXMLEventReader(new FileInputStream(filename));
+    // ID родственников из всех фрагментов интернируются в ids – таблицу объединения
+
+    static List<PersonInfo> parseInput(String filename, IdTable ids) throws Exception {
+        return parseInput(filename, ParserEngine.EVENT, ids);
+    }
+
+    static List<PersonInfo> parseInput(String filename, ParserEngine engine, IdTable ids) throws Exception {
         List<PersonInfo> fragments = new ArrayList<>();
+        parseInput(filename, engine, ids, fragments::add);
+        return fragments;
+    }
+
+    static void parseInput(String filename, ParserEngine engine, IdTable ids,
+                           Consumer<PersonInfo> fragments) throws Exception {
+        boolean gzip = isGzip(new File(filename));
+        if (engine == ParserEngine.MAPPED) {
+            if (!gzip && MappedFragmentParser.parse(new File(filename), ids, fragments)) return;
+            engine = ParserEngine.CURSOR;   // gzip, DOCTYPE, другая кодировка или слишком большой файл
+        }
+        try (InputStream in = openInput(filename)) {
+            parseFragments(in, null, engine, ids, fragments);
+        }
+    }
+
+    /** Сжат ли файл gzip (по сигнатуре 1f 8b, а не по расширению). */
+    static boolean isGzip(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    /** Буферизованный поток файла; gzip распаковывается на лету. */
+    static InputStream openInput(String filename) throws IOException {
+        InputStream in = new FileInputStream(filename);
+        try {
+            if (isGzip(new File(filename))) in = new GZIPInputStream(in, 1 << 16);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new BufferedInputStream(in, 1 << 16);
+    }
+
+    /**
+     * Поток для записи результата. Файл с расширением .gz сжимается на всех
+     * ядрах ({@link ParallelGzipOutputStream}).
+     */
+    static OutputStream openOutput(String filename) throws IOException {
+        OutputStream out = new FileOutputStream(filename);
+        if (filename.endsWith(".gz")) {
+            out = new ParallelGzipOutputStream(out, Runtime.getRuntime().availableProcessors());
+        }
+        return out;
+    }
+
+    /**
+     * Разбирает поток выбранным движком и передаёт каждый готовый фрагмент
+     * в sink. Если кодировка не известна (null), она определяется парсером
+     * по прологу документа. Поток нельзя отобразить в память, поэтому
+     * MAPPED здесь разбирается курсорным движком.
+     */
+    static void parseFragments(InputStream in, String encoding, ParserEngine engine, IdTable ids,
+                               Consumer<PersonInfo> fragments) throws XMLStreamException {
+        XMLInputFactory factory = INPUT_FACTORY;
+        if (engine != ParserEngine.EVENT) {
+            XMLStreamReader reader = encoding == null
+                    ? factory.createXMLStreamReader(in) : factory.createXMLStreamReader(in, encoding);
+            CursorFragmentParser.parseFragments(reader, ids, fragments);
+            reader.close();
+        } else {
+            XMLEventReader reader = encoding == null
+                    ? factory.createXMLEventReader(in) : factory.createXMLEventReader(in, encoding);
+            parseFragments(reader, ids, fragments);
+            reader.close();
+        }
+    }
+
+    /**
+     * Читает фрагменты &lt;person&gt; из потока событий и передаёт их в sink
+     * в порядке появления. Используется как последовательным, так и параллельным разбором.
+     */
+    static void parseFragments(XMLEventReader reader, IdTable ids,
+                               Consumer<PersonInfo> fragments) throws XMLStreamException {
 
         PersonInfo currentPerson = null;
         StringBuilder textBuffer = new StringBuilder();
@@ -228,7 +716,7 @@ public class PersonDataAggregator {
                 textBuffer.setLength(0);
 
                 if ("person".equals(localName)) {
-                    currentPerson = new PersonInfo();
+                    currentPerson = new PersonInfo(ids);
                     // Попытаться получить id из атрибута
                     String idAttr = getAttributeValue(start, "id");
                     if (idAttr != null) {
@@ -250,8 +738,7 @@ public class PersonDataAggregator {
 
                     // Множественные ID в атрибуте val (через пробел)
                     if (val != null) {
-                        String[] ids = val.split("\\s+");
-                        for (String id : ids) {
+                        for (String id : val.split("\\s+")) {
                             if (!id.isEmpty()) {
                                 addReference(currentPerson, localName, id, true);
                             }
@@ -300,7 +787,8 @@ public class PersonDataAggregator {
                 if ("person".equals(localName)) {
                     // Фрагмент закончен – сохраняем
                     if (currentPerson != null) {
-                        fragments.add(currentPerson);
+                        RunReport.count(RunReport.Counter.FRAGMENTS_PARSED);
+                        fragments.accept(currentPerson);
                         currentPerson = null;
                     }
                     inFullname = false;
@@ -384,8 +872,6 @@ public class PersonDataAggregator {
                 }
             }
         }
-        reader.close();
-        return fragments;
     }
 
     // Вспомогательные методы для парсинга
@@ -394,7 +880,7 @@ public class PersonDataAggregator {
         return attr != null ? attr.getValue() : null;
     }
 
-    private static void parseFullName(String name, PersonInfo person) {
+    static void parseFullName(String name, PersonInfo person) {
         if (name == null) return;
         String[] parts = name.trim().split("\\s+", 2);
         person.firstName = parts[0];
@@ -474,11 +960,17 @@ public class PersonDataAggregator {
         }
     }
 
-    private static boolean isLikelyId(String s) {
-        return s.matches("P\\d+");
+    static boolean isLikelyId(String s) {
+        // эквивалент s.matches("P\\d+") без компиляции регулярного выражения
+        if (s.length() < 2 || s.charAt(0) != 'P') return false;
+        for (int i = 1; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
     }
 
-    private static String normalizeGender(String g) {
+    static String normalizeGender(String g) {
         if (g == null) return null;
         g = g.trim().toLowerCase();
         if (g.startsWith("f") || "female".equals(g)) return "female";
@@ -487,216 +979,338 @@ public class PersonDataAggregator {
     }
 
     // ---------- Объединение фрагментов ----------
-    private static Map<String, PersonInfo> mergeFragments(List<PersonInfo> fragments) {
+    static Map<String, PersonInfo> mergeFragments(List<PersonInfo> fragments) {
+        return mergeFragments(fragments, new NameIndex());
+    }
+
+    /**
+     * Объединяет фрагменты и заполняет переданный индекс имён, который затем
+     * можно повторно использовать в resolveNameReferences.
+     */
+    static Map<String, PersonInfo> mergeFragments(List<PersonInfo> fragments, NameIndex nameIndex) {
         Map<String, PersonInfo> idMap = new HashMap<>();
-        Map<String, List<PersonInfo>> nameMap = new HashMap<>();
+        SyntheticIds syntheticIds = new SyntheticIds(idMap::containsKey);
+        // Группы имён в порядке файла: при нечётком сопоставлении первая группа задаёт написание
+        Map<String, List<PersonInfo>> nameMap = new LinkedHashMap<>();
 
         // Первый проход: группируем по ID и строим индекс по именам
         for (PersonInfo frag : fragments) {
-            if (frag.id != null) {
-                // Есть ID – объединяем
-                idMap.merge(frag.id, frag, (a, b) -> { a.merge(b); return a; });
+            mergeById(idMap, nameMap, frag, syntheticIds);
+        }
+
+        // Второй проход – после того, как известны все люди с ID
+        mergeByName(idMap, nameMap, nameIndex, syntheticIds);
+        return idMap;
+    }
+
+    /**
+     * Первый проход объединения для одного фрагмента: фрагмент с ID сливается
+     * в idMap, фрагмент без ID откладывается в nameMap до второго прохода.
+     * Фрагменты можно подавать по мере разбора.
+     */
+    static void mergeById(Map<String, PersonInfo> idMap, Map<String, List<PersonInfo>> nameMap,
+                          PersonInfo frag, SyntheticIds syntheticIds) {
+        if (frag.id != null) {
+            // Есть ID – объединяем
+            RunReport.count(RunReport.Counter.FRAGMENTS_WITH_ID);
+            idMap.merge(frag.id, frag, (a, b) -> { a.merge(b); return a; });
+        } else {
+            // Нет ID, используем каноническое имя
+            String name = frag.getCanonicalName();
+            if (name != null) {
+                RunReport.count(RunReport.Counter.FRAGMENTS_BY_NAME);
+                nameMap.computeIfAbsent(name, k -> new ArrayList<>()).add(frag);
             } else {
-                // Нет ID, используем каноническое имя
-                String name = frag.getCanonicalName();
-                if (name != null) {
-                    nameMap.computeIfAbsent(name, k -> new ArrayList<>()).add(frag);
-                } else {
-                    // Нет ни ID, ни имени – создаём синтетический ID
-                    String syntheticId = "gen_" + UUID.randomUUID().toString();
-                    frag.id = syntheticId;
-                    idMap.put(syntheticId, frag);
-                }
+                // Нет ни ID, ни имени – создаём синтетический ID
+                String syntheticId = syntheticIds.next(null, frag);
+                frag.id = syntheticId;
+                idMap.put(syntheticId, frag);
             }
         }
+    }
+
+    /**
+     * Второй проход: индекс имён строится по людям из idMap, и отложенные
+     * фрагменты без ID присоединяются к ним или становятся новыми людьми.
+     */
+    static void mergeByName(Map<String, PersonInfo> idMap, Map<String, List<PersonInfo>> nameMap,
+                            NameIndex nameIndex, SyntheticIds syntheticIds) {
+        // Индекс имён строится один раз по людям, известным по ID
+        for (PersonInfo p : idMap.values()) {
+            nameIndex.add(p);
+        }
 
         // Второй проход: пытаемся сопоставить фрагменты без ID с уже известными по имени
         for (Map.Entry<String, List<PersonInfo>> entry : nameMap.entrySet()) {
             String name = entry.getKey();
             List<PersonInfo> nameless = entry.getValue();
-            // Ищем человека с таким именем в idMap
-            PersonInfo target = null;
-            for (PersonInfo p : idMap.values()) {
-                if (name.equals(p.getCanonicalName())) {
-                    target = p;
-                    break;
-                }
-            }
+            // Ищем человека с таким именем через индекс
+            PersonInfo target = nameIndex.get(name);
             if (target != null) {
                 // Нашли – объединяем все безымянные фрагменты с ним
+                RunReport.count(RunReport.Counter.FRAGMENTS_ATTACHED_BY_NAME, nameless.size());
                 for (PersonInfo frag : nameless) {
-                    target.merge(frag);
+                    nameIndex.attach(target, frag);
                 }
             } else {
                 // Нет человека с таким именем – создаём нового с синтетическим ID
-                PersonInfo combined = new PersonInfo();
+                PersonInfo combined = new PersonInfo(nameless.get(0).ids());
                 for (PersonInfo frag : nameless) {
                     combined.merge(frag);
                 }
-                combined.id = "gen_" + UUID.randomUUID().toString();
+                combined.id = syntheticIds.next(name, combined);
                 // Используем имя как имя/фамилию
                 String[] parts = name.split(" ", 2);
                 combined.firstName = parts[0];
                 if (parts.length > 1) combined.lastName = parts[1];
+                combined.canonicalName = null;
                 idMap.put(combined.id, combined);
+                nameIndex.add(combined);
             }
         }
-
-        return idMap;
     }
 
     // ---------- Преобразование текстовых ссылок в ID ----------
-    private static void resolveNameReferences(Map<String, PersonInfo> persons) {
-        // Строим отображение "каноническое имя" -> ID (предполагаем уникальность имён)
-        Map<String, String> nameToId = new HashMap<>();
-        for (PersonInfo p : persons.values()) {
-            String name = p.getCanonicalName();
-            if (name != null) {
-                nameToId.put(name, p.id);
-            }
-        }
+    static void resolveNameReferences(Map<String, PersonInfo> persons) {
+        resolveNameReferences(persons, NameIndex.build(persons.values()));
+    }
+
+    /**
+     * Разрешает текстовые ссылки через индекс "каноническое имя" -> человек
+     * (предполагаем уникальность имён; при совпадении берётся первый из индекса).
+     */
+    static void resolveNameReferences(Map<String, PersonInfo> persons, NameIndex nameIndex) {
 
         // Для каждого человека разрешаем неразрешённые имена
         for (PersonInfo p : persons.values()) {
-            // Пытаемся преобразовать spouseName в spouseId
-            if (p.spouseName != null && p.spouseId == null) {
-                String id = nameToId.get(p.spouseName);
-                if (id != null) {
-                    p.spouseId = id;
-                    p.spouseName = null; // очищаем имя
-                }
+            resolvePerson(p, name -> idByName(nameIndex, name));
+        }
+    }
+
+    /**
+     * Разрешает текстовые ссылки одного человека; idByName возвращает ID
+     * по точному имени или null.
+     */
+    static void resolvePerson(PersonInfo p, Function<String, String> idByName) {
+        // Пытаемся преобразовать spouseName в spouseId
+        if (p.spouseName != null && p.spouseId == null) {
+            String id = idByName.apply(p.spouseName);
+            if (id != null) {
+                p.spouseId = id;
+                p.spouseName = null; // очищаем имя
             }
-            // motherName/fatherName остаются строками (не IDREF)
-            // Разрешаем имена детей
-            if (p.unresolvedChildNames != null) {
-                for (String childName : p.unresolvedChildNames) {
-                    String id = nameToId.get(childName);
-                    if (id != null) {
-                        p.children.add(id);
-                    } else {
-                        System.err.println("Предупреждение: не удалось разрешить имя ребёнка '" + childName + "' для человека " + p.id);
-                    }
+        }
+        // motherName/fatherName остаются строками (не IDREF)
+        // Разрешаем имена детей
+        // Неразрешённые имена остаются в записи: их можно разрешить при следующей дельте
+        if (p.unresolvedChildNames != null) {
+            Set<String> pending = null;
+            for (String childName : p.unresolvedChildNames) {
+                String id = idByName.apply(childName);
+                if (id != null) {
+                    p.children.add(id);
+                } else {
+                    RunReport.warn(RunReport.Warning.UNRESOLVED_CHILD,
+                            "не удалось разрешить имя ребёнка '%s' для человека %s", childName, p.id);
+                    if (pending == null) pending = new HashSet<>();
+                    pending.add(childName);
                 }
-                p.unresolvedChildNames = null;
             }
-            // Разрешаем имена братьев/сестёр
-            if (p.unresolvedSiblingNames != null) {
-                for (String sibName : p.unresolvedSiblingNames) {
-                    String id = nameToId.get(sibName);
-                    if (id != null) {
-                        p.siblings.add(id);
-                    } else {
-                        System.err.println("Предупреждение: не удалось разрешить имя брата/сестры '" + sibName + "' для человека " + p.id);
-                    }
+            p.unresolvedChildNames = pending;
+        }
+        // Разрешаем имена братьев/сестёр
+        if (p.unresolvedSiblingNames != null) {
+            Set<String> pending = null;
+            for (String sibName : p.unresolvedSiblingNames) {
+                String id = idByName.apply(sibName);
+                if (id != null) {
+                    p.siblings.add(id);
+                } else {
+                    RunReport.warn(RunReport.Warning.UNRESOLVED_SIBLING,
+                            "не удалось разрешить имя брата/сестры '%s' для человека %s", sibName, p.id);
+                    if (pending == null) pending = new HashSet<>();
+                    pending.add(sibName);
                 }
-                p.unresolvedSiblingNames = null;
             }
+            p.unresolvedSiblingNames = pending;
         }
     }
 
+    static String idByName(NameIndex nameIndex, String name) {
+        PersonInfo p = nameIndex.get(name);
+        return p != null ? p.id : null;
+    }
+
     // ---------- Проверка согласованности (маркеры количества) ----------
-    private static void validate(Map<String, PersonInfo> persons) {
+    static void validate(Map<String, PersonInfo> persons) {
         for (PersonInfo p : persons.values()) {
-            if (p.childrenCountMarker != null) {
-                if (p.children.size() != p.childrenCountMarker) {
-                    System.err.printf("Предупреждение валидации: у человека %s %d детей, но маркер указывает %d%n",
-                            p.id, p.children.size(), p.childrenCountMarker);
-                }
+            validatePerson(p);
+        }
+    }
+
+    static void validatePerson(PersonInfo p) {
+        if (p.childrenCountMarker != null) {
+            if (p.children.size() != p.childrenCountMarker) {
+                RunReport.warn(RunReport.Warning.CHILDREN_MARKER_MISMATCH,
+                        "у человека %s %d детей, но маркер указывает %d", p.id, p.children.size(), p.childrenCountMarker);
             }
-            if (p.siblingsCountMarker != null) {
-                if (p.siblings.size() != p.siblingsCountMarker) {
-                    System.err.printf("Предупреждение валидации: у человека %s %d сиблингов, но маркер указывает %d%n",
-                            p.id, p.siblings.size(), p.siblingsCountMarker);
-                }
+        }
+        if (p.siblingsCountMarker != null) {
+            if (p.siblings.size() != p.siblingsCountMarker) {
+                RunReport.warn(RunReport.Warning.SIBLINGS_MARKER_MISMATCH,
+                        "у человека %s %d сиблингов, но маркер указывает %d", p.id, p.siblings.size(), p.siblingsCountMarker);
             }
         }
     }
 
     // ---------- Преобразование в JAXB-объекты ----------
-    private static Persons convertToJAXB(Map<String, PersonInfo> personsMap) {
+    static Persons convertToJAXB(Map<String, PersonInfo> personsMap, IdTable ids) {
         Persons root = new Persons();
-        Map<String, Person> personObjectMap = new HashMap<>();
+        // Объекты Person по номеру ID из таблицы объединения
+        for (PersonInfo info : personsMap.values()) {
+            ids.intern(info.id);
+        }
+        Person[] personObjects = new Person[ids.size()];
 
         // Первый проход: создаём объекты Person без ссылок
         for (PersonInfo info : personsMap.values()) {
-            Person p = new Person();
-            p.setId(info.id);
-            p.setFirstName(info.firstName);
-            p.setLastName(info.lastName);
-            p.setGender(info.gender);
-            p.setSpouseName(info.spouseName);
-            p.setMotherName(info.motherName);
-            p.setFatherName(info.fatherName);
-            // ссылки будут установлены во втором проходе
+            Person p = newPerson(info);
             root.getPersons().add(p);
-            personObjectMap.put(info.id, p);
+            personObjects[ids.intern(info.id)] = p;
         }
 
         // Второй проход: устанавливаем ссылки, используя карту объектов
         for (PersonInfo info : personsMap.values()) {
-            Person p = personObjectMap.get(info.id);
+            linkPerson(info, ids, personObjects);
+        }
 
-            // супруг
-            if (info.spouseId != null) {
-                p.setSpouse(personObjectMap.get(info.spouseId));
-            }
+        return root;
+    }
 
-            // родители
-            if (!info.parents.isEmpty()) {
-                List<Person> parentList = new ArrayList<>();
-                for (String pid : info.parents) {
-                    Person parent = personObjectMap.get(pid);
-                    if (parent != null) parentList.add(parent);
-                }
-                p.setParents(parentList);
-            }
+    /** Объект Person без ссылок на других людей (первый проход convertToJAXB). */
+    static Person newPerson(PersonInfo info) {
+        Person p = new Person();
+        p.setId(info.id);
+        p.setFirstName(info.firstName);
+        p.setLastName(info.lastName);
+        p.setGender(info.gender);
+        p.setSpouseName(info.spouseName);
+        p.setMotherName(info.motherName);
+        p.setFatherName(info.fatherName);
+        // ссылки будут установлены во втором проходе
+        return p;
+    }
 
-            // дети
-            if (!info.children.isEmpty()) {
-                List<Person> childList = new ArrayList<>();
-                for (String cid : info.children) {
-                    Person child = personObjectMap.get(cid);
-                    if (child != null) childList.add(child);
-                }
-                p.setChildren(childList);
-            }
+    /**
+     * Второй проход convertToJAXB для одного человека: ссылки на супруга,
+     * родителей, детей и сиблингов. Изменяет только объект этого человека.
+     */
+    static void linkPerson(PersonInfo info, IdTable ids, Person[] personObjects) {
+        Person p = personObjects[ids.indexOf(info.id)];
 
-            // разделяем сиблингов по полу
-            List<Person> brothers = new ArrayList<>();
-            List<Person> sisters = new ArrayList<>();
-            for (String siblingId : info.siblings) {
-                Person sibling = personObjectMap.get(siblingId);
-                if (sibling != null && sibling.getGender() != null) {
-                    if ("male".equalsIgnoreCase(sibling.getGender())) {
-                        brothers.add(sibling);
-                    } else if ("female".equalsIgnoreCase(sibling.getGender())) {
-                        sisters.add(sibling);
-                    } else {
-                        System.err.println("Предупреждение: неизвестный пол у сиблинга " + siblingId);
-                    }
+        // супруг
+        if (info.spouseId != null) {
+            p.setSpouse(personAt(personObjects, ids.indexOf(info.spouseId)));
+        }
+
+        // родители
+        if (!info.parents.isEmpty()) {
+            p.setParents(personList(personObjects, info.parents));
+        }
+
+        // дети
+        if (!info.children.isEmpty()) {
+            p.setChildren(personList(personObjects, info.children));
+        }
+
+        // разделяем сиблингов по полу
+        List<Person> brothers = new ArrayList<>();
+        List<Person> sisters = new ArrayList<>();
+        for (int index : info.siblings.idOrder()) {
+            String siblingId = ids.idOf(index);
+            Person sibling = personAt(personObjects, index);
+            if (sibling != null && sibling.getGender() != null) {
+                if ("male".equalsIgnoreCase(sibling.getGender())) {
+                    brothers.add(sibling);
+                } else if ("female".equalsIgnoreCase(sibling.getGender())) {
+                    sisters.add(sibling);
                 } else {
-                    System.err.println("Предупреждение: сиблинг " + siblingId + " не найден или не имеет пола");
+                    RunReport.warn(RunReport.Warning.SIBLING_WITHOUT_GENDER, "неизвестный пол у сиблинга %s", siblingId);
                 }
+            } else {
+                RunReport.warn(RunReport.Warning.SIBLING_WITHOUT_GENDER,
+                        "сиблинг %s не найден или не имеет пола", siblingId);
             }
-            p.setBrothers(brothers);
-            p.setSisters(sisters);
         }
+        p.setBrothers(brothers);
+        p.setSisters(sisters);
+    }
 
-        return root;
+    private static Person personAt(Person[] personObjects, int index) {
+        return index >= 0 && index < personObjects.length ? personObjects[index] : null;
+    }
+
+    /** Существующие люди из множества ID в порядке ID (отсутствующие пропускаются). */
+    private static List<Person> personList(Person[] personObjects, IdSet ids) {
+        List<Person> list = new ArrayList<>(ids.size());
+        for (int index : ids.idOrder()) {
+            Person person = personAt(personObjects, index);
+            if (person != null) list.add(person);
+        }
+        return list;
     }
 
     // ---------- Маршаллинг JAXB с проверкой по схеме ----------
-    private static void marshalWithValidation(Persons root, String outputFile, String schemaFile) throws Exception {
-        JAXBContext context = JAXBContext.newInstance(Persons.class);
-        Marshaller marshaller = context.createMarshaller();
+
+    // Контекст JAXB, скомпилированные схемы и фабрика StAX потокобезопасны,
+    // поэтому создаются один раз на процесс (важно для пакетного режима)
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final Map<String, Schema> schemas = new ConcurrentHashMap<>();
+    private static volatile JAXBContext jaxbContext;
+
+    static XMLInputFactory inputFactory() {
+        return INPUT_FACTORY;
+    }
+
+    static JAXBContext jaxbContext() throws JAXBException {
+        JAXBContext context = jaxbContext;
+        if (context == null) {
+            synchronized (PersonDataAggregator.class) {
+                context = jaxbContext;
+                if (context == null) jaxbContext = context = JAXBContext.newInstance(Persons.class);
+            }
+        }
+        return context;
+    }
+
+    static void marshalWithValidation(Persons root, String outputFile, String schemaFile) throws Exception {
+        // Marshaller не потокобезопасен и дёшев – создаётся на каждый вывод
+        Marshaller marshaller = jaxbContext().createMarshaller();
         marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
 
         // Загружаем схему
-        SchemaFactory sf = SchemaFactory.newInstance(javax.xml.XMLConstants.W3C_XML_SCHEMA_NS_URI);
-        Schema schema = sf.newSchema(new File(schemaFile));
-        marshaller.setSchema(schema);
+        marshaller.setSchema(loadSchema(schemaFile));
 
         // Записываем в файл
-        marshaller.marshal(root, new File(outputFile));
+        try (OutputStream out = new BufferedOutputStream(openOutput(outputFile), 1 << 16)) {
+            marshaller.marshal(root, out);
+        }
+    }
+
+    /**
+     * Скомпилированная схема. Кэшируется по пути и времени изменения файла,
+     * так что долгоживущий процесс подхватит изменённую схему.
+     */
+    static Schema loadSchema(String schemaFile) throws org.xml.sax.SAXException, IOException {
+        File file = new File(schemaFile);
+        String key = file.getCanonicalPath() + '@' + file.lastModified();
+        Schema schema = schemas.get(key);
+        if (schema == null) {
+            SchemaFactory sf = SchemaFactory.newInstance(javax.xml.XMLConstants.W3C_XML_SCHEMA_NS_URI);
+            schema = sf.newSchema(file);
+            Schema existing = schemas.putIfAbsent(key, schema);
+            if (existing != null) schema = existing;
+        }
+        return schema;
     }
 }
\ No newline at end of file
@@ -0,0 +1,101 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Двоичный снимок состояния объединения до присоединения по имени и
+ * разрешения ссылок: люди, объединённые по ID, и фрагменты без ID,
+ * сгруппированные по каноническому имени в порядке появления. Это ровно то,
+ * что первый проход {@link PersonDataAggregator#mergeFragments} накапливает
+ * по всем входным файлам, поэтому следующий запуск разбирает только новые
+ * файлы, а присоединение по имени, разрешение и проверка дают тот же
+ * результат, что и полный запуск по всем файлам сразу.
+ */
+final class PersonSnapshot {
+
+    private static final int MAGIC = 0x50444153;   // "PDAS"
+    private static final int VERSION = 2;
+
+    /** Люди по ID и отложенные фрагменты без ID: каноническое имя -> фрагменты. */
+    static final class State {
+        final Map<String, PersonInfo> persons;
+        final Map<String, List<PersonInfo>> pendingNames;
+
+        State() {
+            this(new HashMap<>(), new LinkedHashMap<>());
+        }
+
+        private State(Map<String, PersonInfo> persons, Map<String, List<PersonInfo>> pendingNames) {
+            this.persons = persons;
+            this.pendingNames = pendingNames;
+        }
+    }
+
+    private PersonSnapshot() {
+    }
+
+    /** ID людей из снимка интернируются в ids – таблицу текущего объединения. */
+    static State load(File file, IdTable ids) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Файл " + file + " не является снимком состояния");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Неподдерживаемая версия снимка " + version + " в " + file
+                        + "; пересоздайте снимок запуском по всем входным файлам");
+            }
+            int count = in.readInt();
+            Map<String, PersonInfo> persons = new HashMap<>(Math.max(16, (int) (count / 0.75f) + 1));
+            for (int i = 0; i < count; i++) {
+                PersonInfo p = PersonInfo.readFrom(in, ids);
+                persons.put(p.id, p);
+            }
+            int groups = in.readInt();
+            Map<String, List<PersonInfo>> pendingNames = new LinkedHashMap<>();
+            for (int i = 0; i < groups; i++) {
+                String name = in.readUTF();
+                int size = in.readInt();
+                List<PersonInfo> fragments = new ArrayList<>(size);
+                for (int j = 0; j < size; j++) fragments.add(PersonInfo.readFrom(in, ids));
+                pendingNames.put(name, fragments);
+            }
+            return new State(persons, pendingNames);
+        }
+    }
+
+    /**
+     * Сохраняет снимок через временный файл, чтобы сбой во время записи
+     * не испортил предыдущий снимок.
+     */
+    static void save(State state, File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(state.persons.size());
+                for (PersonInfo p : state.persons.values()) {
+                    p.writeTo(out);
+                }
+                out.writeInt(state.pendingNames.size());
+                for (Map.Entry<String, List<PersonInfo>> group : state.pendingNames.entrySet()) {
+                    out.writeUTF(group.getKey());
+                    out.writeInt(group.getValue().size());
+                    for (PersonInfo frag : group.getValue()) frag.writeTo(out);
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+}
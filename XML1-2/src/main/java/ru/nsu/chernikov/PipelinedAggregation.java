@@ -0,0 +1,212 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.ParserEngine;
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import javax.xml.validation.Schema;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+/**
+ * Конвейерное выполнение этапов вместо строго последовательного.
+ * <ol>
+ *   <li>Поток разбора передаёт фрагменты пачками через ограниченную очередь
+ *       этапу объединения по ID, так что чтение файла идёт одновременно с
+ *       объединением. Фрагменты без ID ждут конца разбора, как и в mergeFragments.</li>
+ *   <li>При потоковом выводе поток разрешения имён и проверки маркеров передаёт
+ *       готовых людей через такую же очередь записи с проверкой по схеме.</li>
+ * </ol>
+ * Заполненная очередь останавливает поставщика, поэтому в памяти одновременно
+ * находится не больше queueDepth пачек между этапами.
+ */
+class PipelinedAggregation {
+
+    private static final int BATCH_SIZE = 256;
+
+    /** Пачка-маркер конца потока; сравнивается по ссылке. */
+    private static final List<PersonInfo> END = new ArrayList<>(0);
+
+    private final int queueDepth;
+    private final boolean dedup;
+
+    PipelinedAggregation(int queueDepth, boolean dedup) {
+        this.queueDepth = Math.max(1, queueDepth);
+        this.dedup = dedup;
+    }
+
+    /**
+     * Разбор и объединение, выполняемые одновременно. Индекс имён заполняется
+     * для последующего разрешения ссылок, ID родственников интернируются в ids.
+     */
+    Map<String, PersonInfo> merge(String inputFile, ParserEngine engine, IdTable ids,
+                                  NameIndex nameIndex) throws Exception {
+        BlockingQueue<List<PersonInfo>> queue = new ArrayBlockingQueue<>(queueDepth);
+        // Копии отбрасываются в потоке разбора и не занимают место в очереди
+        Stage parser = new Stage("parser", queue, sink -> PersonDataAggregator.parseInput(inputFile, engine, ids,
+                dedup ? new FragmentDeduplicator(sink) : sink));
+        parser.start();
+
+        Map<String, PersonInfo> idMap = new HashMap<>();
+        SyntheticIds syntheticIds = new SyntheticIds(idMap::containsKey);
+        Map<String, List<PersonInfo>> nameMap = new LinkedHashMap<>();
+        try {
+            for (List<PersonInfo> batch; (batch = parser.take()) != END; ) {
+                for (PersonInfo frag : batch) {
+                    PersonDataAggregator.mergeById(idMap, nameMap, frag, syntheticIds);
+                }
+            }
+        } finally {
+            parser.cancel();
+            parser.join();
+        }
+        PersonDataAggregator.mergeByName(idMap, nameMap, nameIndex, syntheticIds);
+        return idMap;
+    }
+
+    /**
+     * Разрешение имён и проверка маркеров одновременно с потоковой записью.
+     * Справочник для ссылок строится заранее: разрешение не меняет ни ID, ни пол.
+     */
+    void resolveAndWrite(Map<String, PersonInfo> persons, IdTable ids, NameIndex nameIndex, String outputFile,
+                         Schema schema) throws Exception {
+        StreamingPersonWriter.Directory directory = StreamingPersonWriter.Directory.of(persons, ids);
+        BlockingQueue<List<PersonInfo>> queue = new ArrayBlockingQueue<>(queueDepth);
+        Stage resolver = new Stage("resolver", queue, sink -> {
+            for (PersonInfo p : persons.values()) {
+                PersonDataAggregator.resolvePerson(p, name -> PersonDataAggregator.idByName(nameIndex, name));
+                PersonDataAggregator.validatePerson(p);
+                sink.accept(p);
+            }
+        });
+        resolver.start();
+        try {
+            StreamingPersonWriter.write(resolver.iterator(), directory, outputFile, schema);
+        } catch (StageFailure e) {
+            throw (Exception) e.getCause();
+        } finally {
+            resolver.cancel();
+            resolver.join();
+        }
+    }
+
+    /** Тело этапа-поставщика: передаёт результаты в sink по одному. */
+    private interface Producer {
+        void run(Consumer<PersonInfo> sink) throws Exception;
+    }
+
+    /**
+     * Поток-поставщик, складывающий результаты пачками в ограниченную очередь.
+     * Ошибка поставщика передаётся потребителю при чтении маркера конца.
+     * Потребитель, закончив чтение (в том числе с ошибкой), вызывает cancel().
+     */
+    private static final class Stage extends Thread {
+        private final BlockingQueue<List<PersonInfo>> queue;
+        private final Producer producer;
+        private volatile Throwable failure;
+        private volatile boolean cancelled;
+        private List<PersonInfo> batch = new ArrayList<>(BATCH_SIZE);
+
+        Stage(String name, BlockingQueue<List<PersonInfo>> queue, Producer producer) {
+            super(name);
+            this.queue = queue;
+            this.producer = producer;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                producer.run(item -> {
+                    batch.add(item);
+                    if (batch.size() == BATCH_SIZE) {
+                        put(batch);
+                        batch = new ArrayList<>(BATCH_SIZE);
+                    }
+                });
+                if (!batch.isEmpty()) put(batch);
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                if (failure == null && !cancelled) {
+                    try {
+                        queue.put(END);
+                    } catch (InterruptedException ignored) {
+                        // потребитель уже завершился и маркер ему не нужен
+                    }
+                } else {
+                    // Ждать места в очереди нельзя: потребителя может уже не быть, а прерывание
+                    // израсходовано на put(batch). Пачки до ошибки не нужны – потребитель всё
+                    // равно получит ошибку, – поэтому очередь очищается и маркер кладётся сразу
+                    queue.clear();
+                    queue.offer(END);
+                }
+            }
+        }
+
+        /** Останавливает поставщика, даже если он ждёт места в очереди. */
+        void cancel() {
+            cancelled = true;
+            interrupt();
+        }
+
+        private void put(List<PersonInfo> items) {
+            try {
+                queue.put(items);
+            } catch (InterruptedException e) {
+                // потребитель завершился с ошибкой – дальше работать незачем
+                throw new CancellationException();
+            }
+        }
+
+        /** Следующая пачка или END; после END пробрасывает ошибку поставщика. */
+        List<PersonInfo> take() throws Exception {
+            List<PersonInfo> items = queue.take();
+            if (items == END) {
+                Throwable e = failure;
+                if (e instanceof Exception) throw (Exception) e;
+                if (e instanceof Error) throw (Error) e;
+            }
+            return items;
+        }
+
+        Iterator<PersonInfo> iterator() {
+            return new Iterator<PersonInfo>() {
+                private List<PersonInfo> current = Collections.emptyList();
+                private int index;
+                private boolean done;
+
+                @Override
+                public boolean hasNext() {
+                    while (!done && index == current.size()) {
+                        try {
+                            current = take();
+                        } catch (Exception e) {
+                            throw new StageFailure(e);
+                        }
+                        index = 0;
+                        done = current == END;
+                    }
+                    return !done;
+                }
+
+                @Override
+                public PersonInfo next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    return current.get(index++);
+                }
+            };
+        }
+    }
+
+    /** Ошибка поставщика, пробрасываемая через итератор. */
+    private static final class StageFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StageFailure(Exception cause) {
+            super(cause);
+        }
+    }
+}
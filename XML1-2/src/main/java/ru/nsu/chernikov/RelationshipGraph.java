@@ -0,0 +1,247 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Проверка и достройка связей между объединёнными людьми (--infer-relations).
+ * Связи во входных данных односторонние: ребёнок называет родителя, а у
+ * родителя этого ребёнка может не быть, супруг указан только с одной
+ * стороны, сиблинги перечислены не все. Граф строится один раз: люди
+ * раскладываются в массив, а номера ID из таблицы объединения переводятся в
+ * позиции массива одной таблицей, так что каждая связь проверяется за O(1)
+ * без поиска по карте.
+ * <ol>
+ *   <li>обратные связи: родитель ↔ ребёнок, супруг ↔ супруг, сиблинг ↔ сиблинг;</li>
+ *   <li>группы сиблингов: система непересекающихся множеств объединяет детей
+ *       одного родителя и указанных сиблингов; внутри группы недостающие
+ *       связи достраиваются, кроме пар, у которых известны родители и среди
+ *       них нет общих. Группы больше {@link #MAX_GROUP} пропускаются – это
+ *       цепочки сводных семей, а не одна семья;</li>
+ *   <li>противоречия: у супруга указан другой супруг
+ *       ({@link RunReport.Warning#SPOUSE_CONFLICT}), человек – собственный
+ *       предок ({@link RunReport.Warning#ANCESTRY_CYCLE}, компоненты сильной
+ *       связности графа родитель → ребёнок по Тарьяну).</li>
+ * </ol>
+ * Время O(V + E) (достройка групп – не больше V·MAX_GROUP), память – несколько
+ * массивов int на человека и одна таблица на размер таблицы ID объединения.
+ * Выполняется после разрешения имён и до проверки маркеров, чтобы маркеры
+ * сравнивались с уже достроенными множествами. Изменяет людей, поэтому
+ * выполняется в одном потоке.
+ */
+class RelationshipGraph {
+
+    static final int MAX_GROUP = 64;
+
+    private final PersonInfo[] persons;
+    private final IdTable ids;
+    private final int[] index;      // номер ID человека в ids
+    private final int[] position;   // номер в ids → позиция в persons или -1
+
+    RelationshipGraph(Map<String, PersonInfo> personsMap, IdTable ids) {
+        this.ids = ids;
+        persons = personsMap.values().toArray(new PersonInfo[0]);
+        index = new int[persons.length];
+        for (int i = 0; i < persons.length; i++) index[i] = ids.intern(persons[i].id);
+        position = new int[ids.size()];
+        Arrays.fill(position, -1);
+        for (int i = 0; i < persons.length; i++) position[index[i]] = i;
+    }
+
+    /** Все три шага по порядку. */
+    void inferAndCheck() {
+        inferReverseLinks();
+        inferSiblingGroups();
+        findAncestryCycles();
+    }
+
+    private int positionOf(int id) {
+        return id >= 0 && id < position.length ? position[id] : -1;
+    }
+
+    // ---------- 1. Обратные связи ----------
+
+    void inferReverseLinks() {
+        for (int i = 0; i < persons.length; i++) {
+            PersonInfo p = persons[i];
+            for (int k = 0; k < p.parents.size(); k++) {
+                int parent = positionOf(p.parents.get(k));
+                if (parent >= 0 && !persons[parent].children.contains(index[i])) {
+                    persons[parent].children.add(index[i]);
+                    RunReport.count(RunReport.Counter.INFERRED_CHILD_LINKS);
+                }
+            }
+            for (int k = 0; k < p.children.size(); k++) {
+                int child = positionOf(p.children.get(k));
+                if (child >= 0 && !persons[child].parents.contains(index[i])) {
+                    persons[child].parents.add(index[i]);
+                    RunReport.count(RunReport.Counter.INFERRED_PARENT_LINKS);
+                }
+            }
+            for (int k = 0; k < p.siblings.size(); k++) {
+                int sibling = positionOf(p.siblings.get(k));
+                if (sibling >= 0 && sibling != i && !persons[sibling].siblings.contains(index[i])) {
+                    persons[sibling].siblings.add(index[i]);
+                    RunReport.count(RunReport.Counter.INFERRED_SIBLING_LINKS);
+                }
+            }
+            if (p.spouseId != null) inferSpouse(p);
+        }
+    }
+
+    private void inferSpouse(PersonInfo p) {
+        int s = positionOf(ids.indexOf(p.spouseId));
+        if (s < 0) return;
+        PersonInfo spouse = persons[s];
+        if (spouse.spouseId == null) {
+            // Неразрешённое имя супруга – другое утверждение, его не перезаписываем
+            if (spouse.spouseName == null) {
+                spouse.spouseId = p.id;
+                RunReport.count(RunReport.Counter.INFERRED_SPOUSE_LINKS);
+            }
+        } else if (!spouse.spouseId.equals(p.id)) {
+            RunReport.warn(RunReport.Warning.SPOUSE_CONFLICT,
+                    "у %s супруг %s, но у %s супруг %s", p.id, spouse.id, spouse.id, spouse.spouseId);
+        }
+    }
+
+    // ---------- 2. Группы сиблингов ----------
+
+    void inferSiblingGroups() {
+        int n = persons.length;
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) parent[i] = i;
+        // Первый встреченный ребёнок каждого родителя (по номеру ID, родителя может не быть среди людей)
+        int[] firstChild = new int[position.length];
+        Arrays.fill(firstChild, -1);
+        for (int i = 0; i < n; i++) {
+            PersonInfo p = persons[i];
+            for (int k = 0; k < p.parents.size(); k++) {
+                int id = p.parents.get(k);
+                if (id >= firstChild.length) continue;
+                if (firstChild[id] < 0) firstChild[id] = i;
+                else union(parent, i, firstChild[id]);
+            }
+            for (int k = 0; k < p.siblings.size(); k++) {
+                int sibling = positionOf(p.siblings.get(k));
+                if (sibling >= 0) union(parent, i, sibling);
+            }
+        }
+
+        // Участники групп подряд: подсчёт по корням, затем раскладка
+        int[] start = new int[n + 1];
+        for (int i = 0; i < n; i++) start[find(parent, i) + 1]++;
+        for (int r = 0; r < n; r++) start[r + 1] += start[r];
+        int[] members = new int[n];
+        int[] fill = Arrays.copyOf(start, n);
+        for (int i = 0; i < n; i++) members[fill[find(parent, i)]++] = i;
+
+        for (int r = 0; r < n; r++) {
+            int size = start[r + 1] - start[r];
+            if (size < 2) continue;
+            RunReport.count(RunReport.Counter.SIBLING_GROUPS);
+            if (size > MAX_GROUP) {
+                RunReport.count(RunReport.Counter.SIBLING_GROUPS_TOO_LARGE);
+                continue;
+            }
+            for (int a = start[r]; a < start[r + 1]; a++) {
+                PersonInfo p = persons[members[a]];
+                for (int b = start[r]; b < start[r + 1]; b++) {
+                    if (a == b) continue;
+                    PersonInfo q = persons[members[b]];
+                    int id = index[members[b]];
+                    if (!p.siblings.contains(id) && mayBeSiblings(p, q)) {
+                        p.siblings.add(id);
+                        RunReport.count(RunReport.Counter.INFERRED_SIBLING_LINKS);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Ложь, если родители известны у обоих и общих нет: в группу их свела цепочка, а не семья. */
+    private static boolean mayBeSiblings(PersonInfo p, PersonInfo q) {
+        return p.parents.isEmpty() || q.parents.isEmpty() || p.parents.intersects(q.parents);
+    }
+
+    private static int find(int[] parent, int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];   // сокращение пути вдвое
+            x = parent[x];
+        }
+        return x;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        // Корень – меньшая позиция: группы не зависят от порядка объединений
+        if (ra < rb) parent[rb] = ra;
+        else if (rb < ra) parent[ra] = rb;
+    }
+
+    // ---------- 3. Циклы предков ----------
+
+    /**
+     * Алгоритм Тарьяна без рекурсии (глубина родословной не ограничена
+     * стеком потока). Человек – собственный предок, если он в компоненте из
+     * нескольких людей или указан своим же ребёнком.
+     */
+    void findAncestryCycles() {
+        int n = persons.length;
+        int[] order = new int[n];
+        int[] low = new int[n];
+        int[] edge = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int[] calls = new int[n];
+        Arrays.fill(order, -1);
+        int counter = 0;
+        int sp = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (order[root] >= 0) continue;
+            int cp = 0;
+            order[root] = low[root] = counter++;
+            stack[sp++] = root;
+            onStack[root] = true;
+            calls[cp++] = root;
+            while (cp > 0) {
+                int v = calls[cp - 1];
+                IdSet children = persons[v].children;
+                if (edge[v] < children.size()) {
+                    int w = positionOf(children.get(edge[v]++));
+                    if (w < 0) continue;
+                    if (order[w] < 0) {
+                        order[w] = low[w] = counter++;
+                        stack[sp++] = w;
+                        onStack[w] = true;
+                        calls[cp++] = w;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], order[w]);
+                    }
+                    continue;
+                }
+                cp--;
+                if (cp > 0) {
+                    int u = calls[cp - 1];
+                    low[u] = Math.min(low[u], low[v]);
+                }
+                if (low[v] != order[v]) continue;
+                int from = sp;
+                do {
+                    onStack[stack[--from]] = false;
+                } while (stack[from] != v);
+                if (sp - from > 1 || children.contains(index[v])) {
+                    for (int k = from; k < sp; k++) {
+                        RunReport.warn(RunReport.Warning.ANCESTRY_CYCLE,
+                                "%s – собственный предок (цикл из %d человек)", persons[stack[k]].id, sp - from);
+                    }
+                }
+                sp = from;
+            }
+        }
+    }
+}
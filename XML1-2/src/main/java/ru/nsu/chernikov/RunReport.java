@@ -0,0 +1,510 @@
+package ru.nsu.chernikov;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Сведения о запуске: время и объём выделенной памяти по этапам, счётчики
+ * фрагментов и предупреждения, сгруппированные по категориям. Вместо строки
+ * в System.err на каждое предупреждение хранится счётчик и не больше
+ * sampleLimit примеров на категорию. Отчёт выводится в JSON, а во время
+ * работы те же числа доступны через JMX ({@link RunStatsMXBean}).
+ * <p>
+ * Отчёт процесса один. В пакетном режиме у каждого входного файла ещё и
+ * свой отчёт ({@link #forFile}): этапы, счётчики и предупреждения файла
+ * учитываются в нём и одновременно в отчёте процесса, где этапы и примеры
+ * предупреждений помечены именем файла. Статические методы пишут в отчёт
+ * текущего потока ({@link #within}); потоки, запущенные во время обработки
+ * файла (пулы разбора и этапов, конвейер), наследуют его при создании.
+ * Счётчики и предупреждения можно обновлять из нескольких потоков.
+ */
+final class RunReport {
+
+    /** Счётчики фрагментов и людей. */
+    enum Counter {
+        FRAGMENTS_PARSED,          // фрагментов <person> выдано разбором
+        FRAGMENTS_DUPLICATE,       // из них отброшено как точные копии (--dedup)
+        FRAGMENTS_WITH_ID,         // из них с ID (объединяются по ID)
+        FRAGMENTS_BY_NAME,         // без ID, но с именем (объединяются по имени)
+        FRAGMENTS_ATTACHED_BY_NAME,// из них присоединено к человеку, найденному по имени
+        SYNTHETIC_IDS,             // выдано синтетических ID
+        FUZZY_KEY_MATCHES,         // имён найдено по отсортированным токенам (--fuzzy-names)
+        FUZZY_SIMILAR_MATCHES,     // имён найдено по расстоянию внутри блока
+        FUZZY_COMPARISONS,         // сравнений по расстоянию
+        FUZZY_BLOCKS_DROPPED,      // блоков, отброшенных как слишком большие
+        INFERRED_PARENT_LINKS,     // добавлено ссылок ребёнок → родитель (--infer-relations)
+        INFERRED_CHILD_LINKS,      // добавлено ссылок родитель → ребёнок
+        INFERRED_SPOUSE_LINKS,     // добавлено обратных ссылок на супруга
+        INFERRED_SIBLING_LINKS,    // добавлено ссылок на братьев и сестёр
+        SIBLING_GROUPS,            // групп сиблингов из двух и более человек
+        SIBLING_GROUPS_TOO_LARGE,  // из них пропущено как слишком большие
+        PERSONS                    // людей в результате
+    }
+
+    /** Категории предупреждений. */
+    enum Warning {
+        UNRESOLVED_CHILD("не удалось разрешить имя ребёнка"),
+        UNRESOLVED_SIBLING("не удалось разрешить имя брата/сестры"),
+        CHILDREN_MARKER_MISMATCH("число детей не совпадает с маркером"),
+        SIBLINGS_MARKER_MISMATCH("число сиблингов не совпадает с маркером"),
+        SIBLING_WITHOUT_GENDER("сиблинг не найден или не имеет пола"),
+        SPOUSE_CONFLICT("у супруга указан другой супруг"),
+        ANCESTRY_CYCLE("человек оказался собственным предком");
+
+        final String description;
+
+        Warning(String description) {
+            this.description = description;
+        }
+    }
+
+    /** Тело замеряемого этапа без результата. */
+    interface Action<E extends Exception> {
+        void run() throws E;
+    }
+
+    /** Тело замеряемого этапа с результатом. */
+    interface Step<T, E extends Exception> {
+        T get() throws E;
+    }
+
+    /**
+     * Замер этапа: время и выделенная за этап память. Память считается по
+     * всем потокам процесса, поэтому у этапов отчёта файла она не
+     * указывается: другие файлы пакета обрабатываются в то же время.
+     */
+    static final class Stage {
+        final String name;
+        final String input;   // входной файл или null вне пакетного режима
+        private final long startNanos;
+        private final Allocations startAllocated;
+        long wallNanos = -1;
+        long allocatedBytes = -1;
+
+        private Stage(String name, String input) {
+            this.name = name;
+            this.input = input;
+            this.startAllocated = input == null ? Allocations.take() : null;
+            this.startNanos = System.nanoTime();
+        }
+
+        private void finish() {
+            wallNanos = System.nanoTime() - startNanos;
+            if (startAllocated != null) allocatedBytes = Allocations.take().since(startAllocated);
+        }
+    }
+
+    private static final RunReport PROCESS = new RunReport(null, null);
+    private static final InheritableThreadLocal<RunReport> CURRENT = new InheritableThreadLocal<>();
+    private static volatile int sampleLimit = 10;
+    private static volatile boolean echo;
+
+    private final String input;       // входной файл; null – отчёт процесса
+    private final RunReport parent;   // отчёт процесса для отчёта файла
+    private final LongAdder[] counters = new LongAdder[Counter.values().length];
+    private final AtomicLong[] warnings = new AtomicLong[Warning.values().length];
+    private final List<List<String>> samples = new ArrayList<>();
+    private final List<Stage> stages = Collections.synchronizedList(new ArrayList<>());
+    private volatile Stage currentStage;
+    private final long startNanos = System.nanoTime();
+
+    private RunReport(String input, RunReport parent) {
+        this.input = input;
+        this.parent = parent;
+        for (int i = 0; i < counters.length; i++) counters[i] = new LongAdder();
+        for (int i = 0; i < warnings.length; i++) {
+            warnings[i] = new AtomicLong();
+            samples.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Настройка: сколько примеров хранить на категорию и печатать ли каждое
+     * предупреждение сразу, как раньше.
+     */
+    static void configure(int limit, boolean echoWarnings) {
+        sampleLimit = limit;
+        echo = echoWarnings;
+    }
+
+    /** Новый отчёт по входному файлу пакетного режима. */
+    static RunReport forFile(String input) {
+        return new RunReport(input, PROCESS);
+    }
+
+    /**
+     * Выполняет action, учитывая всё в этом отчёте, в том числе в потоках,
+     * созданных во время action.
+     */
+    <E extends Exception> void within(Action<E> action) throws E {
+        RunReport saved = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            action.run();
+        } finally {
+            if (saved != null) {
+                CURRENT.set(saved);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    private static RunReport current() {
+        RunReport report = CURRENT.get();
+        return report != null ? report : PROCESS;
+    }
+
+    /** Выполняет этап, записывая его время и выделенную память. */
+    static <E extends Exception> void timed(String name, Action<E> action) throws E {
+        RunReport report = current();
+        Stage stage = report.start(name);
+        try {
+            action.run();
+        } finally {
+            report.finish(stage);
+        }
+    }
+
+    /** То же для этапа с результатом. */
+    static <T, E extends Exception> T timed(String name, Step<T, E> step) throws E {
+        RunReport report = current();
+        Stage stage = report.start(name);
+        try {
+            return step.get();
+        } finally {
+            report.finish(stage);
+        }
+    }
+
+    private Stage start(String name) {
+        Stage stage = new Stage(name, input);
+        stages.add(stage);
+        if (parent != null) parent.stages.add(stage);
+        currentStage = stage;
+        return stage;
+    }
+
+    private void finish(Stage stage) {
+        stage.finish();
+        currentStage = null;
+    }
+
+    static void count(Counter counter) {
+        current().add(counter, 1);
+    }
+
+    static void count(Counter counter, long n) {
+        current().add(counter, n);
+    }
+
+    private void add(Counter counter, long n) {
+        counters[counter.ordinal()].add(n);
+        if (parent != null) parent.add(counter, n);
+    }
+
+    /**
+     * Учитывает предупреждение. Строка сообщения форматируется только для
+     * сохраняемых примеров (или при печати каждого предупреждения).
+     */
+    static void warn(Warning warning, String format, Object... args) {
+        RunReport report = current();
+        if (echo) {
+            System.err.println("Предупреждение: " + (report.input != null ? report.input + ": " : "")
+                    + String.format(format, args));
+        }
+        report.record(warning, "", format, args);
+    }
+
+    private void record(Warning warning, String prefix, String format, Object[] args) {
+        long n = warnings[warning.ordinal()].incrementAndGet();
+        if (n <= sampleLimit) {
+            // примерами становятся первые sampleLimit предупреждений категории
+            List<String> list = samples.get(warning.ordinal());
+            synchronized (list) {
+                list.add(prefix + String.format(format, args));
+            }
+        }
+        // в отчёте процесса пример помечается файлом
+        if (parent != null) parent.record(warning, input + ": ", format, args);
+    }
+
+    /**
+     * Обнуляет счётчики, предупреждения и этапы отчёта процесса; долгоживущий
+     * процесс вызывает его между просмотрами каталога, чтобы отчёт не рос без конца.
+     */
+    static void reset() {
+        RunReport report = PROCESS;
+        for (LongAdder counter : report.counters) counter.reset();
+        for (int i = 0; i < report.warnings.length; i++) {
+            report.warnings[i].set(0);
+            List<String> list = report.samples.get(i);
+            synchronized (list) {
+                list.clear();
+            }
+        }
+        report.stages.clear();
+    }
+
+    long counter(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    long warnings(Warning warning) {
+        return warnings[warning.ordinal()].get();
+    }
+
+    // ---------- Вывод ----------
+
+    /** Краткая сводка предупреждений процесса для System.err. */
+    static void printWarningSummary(PrintStream out) {
+        PROCESS.printSummary(out);
+    }
+
+    private void printSummary(PrintStream out) {
+        for (Warning w : Warning.values()) {
+            long count = warnings(w);
+            if (count == 0) continue;
+            out.println("Предупреждения: " + w.description + " – " + count);
+            List<String> list = samples.get(w.ordinal());
+            synchronized (list) {
+                for (String sample : list) out.println("    " + sample);
+            }
+            if (count > list.size()) out.println("    ...");
+        }
+    }
+
+    /** Отчёт процесса в JSON. */
+    static void writeJson(File file, Map<String, String> run) throws IOException {
+        PROCESS.write(file, run);
+    }
+
+    /**
+     * Дописывает отчёт процесса в file одной строкой JSON; так --watch
+     * сохраняет отчёт каждого просмотра каталога.
+     */
+    static void appendJson(File file, Map<String, String> run) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8))) {
+            // переводы строк внутри значений экранированы, остальные – только оформление
+            out.write(PROCESS.toJson(run).replaceAll("\n *", ""));
+            out.write('\n');
+        }
+    }
+
+    /** Нет ни одного этапа с последнего reset(). */
+    static boolean isEmpty() {
+        return PROCESS.stages.isEmpty();
+    }
+
+    void write(File file, Map<String, String> run) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            out.write(toJson(run));
+            out.write('\n');
+        }
+    }
+
+    String toJson(Map<String, String> run) {
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"run\": {");
+        String sep = "";
+        for (Map.Entry<String, String> e : run.entrySet()) {
+            sb.append(sep).append("\n    ").append(quote(e.getKey())).append(": ").append(quote(e.getValue()));
+            sep = ",";
+        }
+        sb.append("\n  },\n");
+        sb.append("  \"totalMillis\": ").append(millis(System.nanoTime() - startNanos)).append(",\n");
+
+        sb.append("  \"stages\": [");
+        sep = "";
+        synchronized (stages) {
+            for (Stage s : stages) {
+                sb.append(sep).append("\n    {\"name\": ").append(quote(s.name));
+                if (input == null && s.input != null) sb.append(", \"input\": ").append(quote(s.input));
+                sb.append(", \"wallMillis\": ").append(s.wallNanos < 0 ? "null" : millis(s.wallNanos))
+                        .append(", \"allocatedBytes\": ").append(s.allocatedBytes < 0 ? "null" : String.valueOf(s.allocatedBytes))
+                        .append('}');
+                sep = ",";
+            }
+        }
+        sb.append("\n  ],\n");
+
+        sb.append("  \"counters\": {");
+        sep = "";
+        for (Counter c : Counter.values()) {
+            sb.append(sep).append("\n    ").append(quote(c.name().toLowerCase(Locale.ROOT))).append(": ").append(counter(c));
+            sep = ",";
+        }
+        sb.append("\n  },\n");
+
+        sb.append("  \"warnings\": {");
+        sep = "";
+        for (Warning w : Warning.values()) {
+            sb.append(sep).append("\n    ").append(quote(w.name().toLowerCase(Locale.ROOT)))
+                    .append(": {\"count\": ").append(warnings(w)).append(", \"samples\": [");
+            List<String> list = samples.get(w.ordinal());
+            synchronized (list) {
+                for (int i = 0; i < list.size(); i++) {
+                    if (i > 0) sb.append(", ");
+                    sb.append(quote(list.get(i)));
+                }
+            }
+            sb.append("]}");
+            sep = ",";
+        }
+        sb.append("\n  }\n}");
+        return sb.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String quote(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // ---------- Память и JMX ----------
+
+    /**
+     * Байты, выделенные живыми потоками, по ID потока. Поток, завершившийся
+     * во время этапа, уносит свой счётчик, и разность по оставшимся
+     * занижена (или отрицательна, если он жил и до этапа). Такое бывает с
+     * пулами потоков, поэтому для этапа с завершившимися потоками выделенная
+     * память не указывается.
+     */
+    private static final class Allocations {
+        private static final Allocations UNSUPPORTED = new Allocations(-1, new long[0], new long[0]);
+
+        private final long startedThreads;
+        private final long[] ids;
+        private final long[] bytes;
+
+        private Allocations(long startedThreads, long[] ids, long[] bytes) {
+            this.startedThreads = startedThreads;
+            this.ids = ids;
+            this.bytes = bytes;
+        }
+
+        static Allocations take() {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) return UNSUPPORTED;
+            com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+            if (!sun.isThreadAllocatedMemorySupported() || !sun.isThreadAllocatedMemoryEnabled()) return UNSUPPORTED;
+            // Поток, запущенный между двумя запросами, нарушит равенство в since()
+            // и даст лишнее «не указано», но не неверное число
+            long started = sun.getTotalStartedThreadCount();
+            long[] ids = sun.getAllThreadIds();
+            return new Allocations(started, ids, sun.getThreadAllocatedBytes(ids));
+        }
+
+        /** Выделено с момента start или -1, если это нельзя посчитать точно. */
+        long since(Allocations start) {
+            if (startedThreads < 0 || start.startedThreads < 0) return -1;
+            Map<Long, Long> before = new HashMap<>();
+            for (int i = 0; i < start.ids.length; i++) before.put(start.ids[i], start.bytes[i]);
+            long total = 0;
+            int survivors = 0;
+            int newThreads = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] < 0) return -1;   // поток завершился между запросами
+                Long was = before.get(ids[i]);
+                if (was != null) {
+                    survivors++;
+                    total += bytes[i] - Math.max(0, was);
+                } else {
+                    newThreads++;
+                    total += bytes[i];
+                }
+            }
+            boolean exited = survivors < start.ids.length || newThreads != startedThreads - start.startedThreads;
+            return exited || total < 0 ? -1 : total;
+        }
+    }
+
+    /**
+     * Регистрирует MXBean ru.nsu.chernikov:type=RunReport. В пакетном режиме
+     * файлы обрабатываются одновременно и общий для процесса текущий этап
+     * ничего не значит, поэтому он не публикуется.
+     */
+    static void registerMBean(boolean batch) throws Exception {
+        RunStats stats = new RunStats();
+        javax.management.StandardMBean bean = batch
+                ? new javax.management.StandardMBean(stats, RunStatsMXBean.class, true)
+                : new javax.management.StandardMBean(stats, SingleRunStatsMXBean.class, true);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(bean,
+                new javax.management.ObjectName("ru.nsu.chernikov:type=RunReport"));
+    }
+
+    /** Текущие значения отчёта для JMX. */
+    public interface RunStatsMXBean {
+        long getElapsedMillis();
+
+        Map<String, Long> getCounters();
+
+        Map<String, Long> getWarnings();
+
+        Map<String, Long> getStageMillis();
+    }
+
+    /** То же с текущим этапом, когда запуск один. */
+    public interface SingleRunStatsMXBean extends RunStatsMXBean {
+        String getCurrentStage();
+    }
+
+    private static final class RunStats implements SingleRunStatsMXBean {
+        @Override
+        public String getCurrentStage() {
+            Stage stage = PROCESS.currentStage;
+            return stage != null ? stage.name : null;
+        }
+
+        @Override
+        public long getElapsedMillis() {
+            return (System.nanoTime() - PROCESS.startNanos) / 1_000_000;
+        }
+
+        @Override
+        public Map<String, Long> getCounters() {
+            Map<String, Long> map = new LinkedHashMap<>();
+            for (Counter c : Counter.values()) map.put(c.name().toLowerCase(Locale.ROOT), PROCESS.counter(c));
+            return map;
+        }
+
+        @Override
+        public Map<String, Long> getWarnings() {
+            Map<String, Long> map = new LinkedHashMap<>();
+            for (Warning w : Warning.values()) map.put(w.name().toLowerCase(Locale.ROOT), PROCESS.warnings(w));
+            return map;
+        }
+
+        @Override
+        public Map<String, Long> getStageMillis() {
+            Map<String, Long> map = new LinkedHashMap<>();
+            synchronized (PROCESS.stages) {
+                for (Stage s : PROCESS.stages) {
+                    map.put(s.input != null ? s.input + ": " + s.name : s.name, (s.wallNanos >= 0 ? s.wallNanos : System.nanoTime() - s.startNanos) / 1_000_000);
+                }
+            }
+            return map;
+        }
+    }
+}
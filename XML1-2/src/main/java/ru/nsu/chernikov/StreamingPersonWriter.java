@@ -0,0 +1,250 @@
+package ru.nsu.chernikov;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.validation.Schema;
+import javax.xml.validation.ValidatorHandler;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Потоковая запись результата без промежуточного графа JAXB-объектов.
+ * Каждый человек пишется через {@link XMLStreamWriter} прямо из объединённой
+ * карты, а те же события параллельно подаются в {@link ValidatorHandler},
+ * так что проверка по схеме идёт на лету. Структура и порядок элементов
+ * совпадают с выводом convertToJAXB + marshalWithValidation.
+ */
+class StreamingPersonWriter implements Closeable {
+
+    private static final String INDENT = "    ";
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    /**
+     * Сведения о других людях, нужные при записи ссылок: существует ли
+     * человек с таким ID и какого он пола. Хранится по одному байту на номер
+     * ID из таблицы объединения, поэтому подходит и для записи с диска.
+     */
+    static final class Directory {
+        private static final byte ABSENT = 0, NO_GENDER = 1, MALE = 2, FEMALE = 3;
+
+        private final IdTable ids;
+        private byte[] entries = new byte[0];
+
+        Directory(IdTable ids) {
+            this.ids = ids;
+        }
+
+        static Directory of(Map<String, PersonInfo> persons, IdTable ids) {
+            Directory directory = new Directory(ids);
+            for (PersonInfo p : persons.values()) directory.put(p.id, p.gender);
+            return directory;
+        }
+
+        void put(String id, String gender) {
+            int index = ids.intern(id);
+            if (index >= entries.length) {
+                entries = Arrays.copyOf(entries, Math.max(index + 1, Math.max(16, entries.length * 2)));
+            }
+            entries[index] = "male".equalsIgnoreCase(gender) ? MALE
+                    : "female".equalsIgnoreCase(gender) ? FEMALE : NO_GENDER;
+        }
+
+        boolean contains(int index) {
+            return index >= 0 && index < entries.length && entries[index] != ABSENT;
+        }
+
+        String genderOf(int index) {
+            if (index < 0 || index >= entries.length) return null;
+            switch (entries[index]) {
+                case MALE: return "male";
+                case FEMALE: return "female";
+                default: return null;
+            }
+        }
+    }
+
+    private final Writer writer;
+    private final XMLStreamWriter out;
+    private final ValidatorHandler validator;
+    private final AttributesImpl noAttributes = new AttributesImpl();
+    private final AttributesImpl idAttribute = new AttributesImpl();
+    private final IdTable ids;
+    private final IdSet brothers;
+    private final IdSet sisters;
+    private char[] chars = new char[64];
+    private int depth;
+    private boolean started;
+
+    private StreamingPersonWriter(OutputStream stream, IdTable ids, Schema schema) throws XMLStreamException {
+        this.ids = ids;
+        this.brothers = new IdSet(ids);
+        this.sisters = new IdSet(ids);
+        this.writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16);
+        this.out = OUTPUT_FACTORY.createXMLStreamWriter(writer);
+        this.validator = schema.newValidatorHandler();
+        idAttribute.addAttribute("", "id", "id", "ID", "");
+    }
+
+    /**
+     * Записывает всех людей в файл с проверкой по схеме. Ошибка проверки
+     * прерывает запись исключением, как и при маршаллинге JAXB.
+     */
+    static void write(Map<String, PersonInfo> persons, IdTable ids, String outputFile,
+                      Schema schema) throws Exception {
+        write(persons.values().iterator(), Directory.of(persons, ids), outputFile, schema);
+    }
+
+    /**
+     * Записывает людей в порядке итератора; ссылки проверяются по directory,
+     * поэтому сами люди могут читаться по одному, например с диска.
+     */
+    static void write(Iterator<PersonInfo> persons, Directory directory, String outputFile,
+                      Schema schema) throws Exception {
+        try (StreamingPersonWriter w = new StreamingPersonWriter(
+                PersonDataAggregator.openOutput(outputFile), directory.ids, schema)) {
+            w.writeAll(persons, directory);
+        }
+    }
+
+    private void writeAll(Iterator<PersonInfo> persons, Directory directory) throws Exception {
+        // Заголовок как у JAXB_FORMATTED_OUTPUT
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+        validator.startDocument();
+        start("persons");
+        while (persons.hasNext()) {
+            writePerson(persons.next(), directory);
+        }
+        end("persons");
+        validator.endDocument();
+        out.flush();
+        writer.write('\n');
+    }
+
+    private void writePerson(PersonInfo info, Directory persons) throws Exception {
+        indent();
+        out.writeStartElement("person");
+        out.writeAttribute("id", info.id);
+        idAttribute.setValue(0, info.id);
+        validator.startElement("", "person", "person", idAttribute);
+        depth++;
+
+        text("firstName", info.firstName);
+        text("lastName", info.lastName);
+        text("gender", info.gender);
+        // IDREF пишется только для существующих людей, как и в convertToJAXB
+        if (info.spouseId != null && persons.contains(ids.indexOf(info.spouseId))) {
+            text("spouse", info.spouseId);
+        }
+        text("spouseName", info.spouseName);
+        if (!info.parents.isEmpty()) {
+            references("parents", "parent", info.parents, persons);
+        }
+        text("motherName", info.motherName);
+        text("fatherName", info.fatherName);
+        if (!info.children.isEmpty()) {
+            references("children", "child", info.children, persons);
+        }
+
+        // разделяем сиблингов по полу
+        brothers.clear();
+        sisters.clear();
+        for (int sibling : info.siblings.idOrder()) {
+            String gender = persons.genderOf(sibling);
+            if ("male".equals(gender)) {
+                brothers.add(sibling);
+            } else if ("female".equals(gender)) {
+                sisters.add(sibling);
+            } else {
+                RunReport.warn(RunReport.Warning.SIBLING_WITHOUT_GENDER,
+                        "сиблинг %s не найден или не имеет пола", ids.idOf(sibling));
+            }
+        }
+        references("brothers", "brother", brothers, null);
+        references("sisters", "sister", sisters, null);
+
+        end("person");
+    }
+
+    /**
+     * Обёртка со списком IDREF. Пустая обёртка пишется как &lt;имя/&gt;, как у JAXB
+     * для непустого поля со списком. Если передан справочник, отсутствующие ID пропускаются.
+     * ID пишутся в порядке строк, как бы ни были интернированы.
+     */
+    private void references(String wrapper, String element, IdSet set,
+                            Directory persons) throws Exception {
+        boolean opened = false;
+        for (int index : set.idOrder()) {
+            if (persons != null && !persons.contains(index)) continue;
+            if (!opened) {
+                start(wrapper);
+                opened = true;
+            }
+            text(element, ids.idOf(index));
+        }
+        if (opened) {
+            end(wrapper);
+        } else {
+            indent();
+            out.writeEmptyElement(wrapper);
+            validator.startElement("", wrapper, wrapper, noAttributes);
+            validator.endElement("", wrapper, wrapper);
+        }
+    }
+
+    private void start(String name) throws XMLStreamException, SAXException {
+        indent();
+        out.writeStartElement(name);
+        validator.startElement("", name, name, noAttributes);
+        depth++;
+    }
+
+    private void end(String name) throws XMLStreamException, SAXException {
+        depth--;
+        indent();
+        out.writeEndElement();
+        validator.endElement("", name, name);
+    }
+
+    private void text(String name, String value) throws XMLStreamException, SAXException {
+        if (value == null) return;
+        indent();
+        out.writeStartElement(name);
+        out.writeCharacters(value);
+        out.writeEndElement();
+
+        validator.startElement("", name, name, noAttributes);
+        int length = value.length();
+        if (chars.length < length) chars = new char[Math.max(length, chars.length * 2)];
+        value.getChars(0, length, chars, 0);
+        validator.characters(chars, 0, length);
+        validator.endElement("", name, name);
+    }
+
+    private void indent() throws XMLStreamException {
+        if (!started) {
+            started = true;
+            return;
+        }
+        out.writeCharacters("\n");
+        for (int i = 0; i < depth; i++) out.writeCharacters(INDENT);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Детерминированные синтетические ID вида gen_ и 16 шестнадцатеричных
+ * цифр. ID – 64-битный хеш (FNV-1a с перемешиванием murmur3) канонического
+ * имени и содержимого человека, поэтому одинаковые входные данные дают
+ * одинаковый вывод, и запуски можно сравнивать и кэшировать.
+ * <p>
+ * Одинаковое содержимое у разных людей (например, два пустых фрагмента)
+ * даёт один хеш; при занятом ID хеш пересчитывается с номером попытки.
+ * Занятость проверяет вызывающий, обычно по карте уже объединённых людей,
+ * так что ID зависит только от входных данных и порядка фрагментов в них.
+ * Экземпляр живёт одно объединение и помнит, на какой попытке остановился
+ * каждый хеш: k-я копия одинакового содержимого не перебирает заново k-1
+ * занятых ID.
+ */
+final class SyntheticIds {
+
+    static final String PREFIX = "gen_";
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Predicate<String> taken;
+    // Хеши, уже давшие занятый ID: следующий кандидат и номер попытки
+    private final Map<Long, long[]> resume = new HashMap<>();
+
+    /** taken сообщает, занят ли ID. */
+    SyntheticIds(Predicate<String> taken) {
+        this.taken = taken;
+    }
+
+    /**
+     * ID для человека с каноническим именем name (null – без имени) и
+     * содержимым content, не занятый по taken.
+     */
+    String next(String name, PersonInfo content) {
+        RunReport.count(RunReport.Counter.SYNTHETIC_IDS);
+        long base = hash(name, content);
+        long[] state = resume.get(base);
+        long hash = state != null ? state[0] : base;
+        for (long attempt = state != null ? state[1] : 1; ; attempt++) {
+            String id = format(hash);
+            long nextHash = mix(hash ^ attempt * FNV_PRIME);
+            if (!taken.test(id)) {
+                if (attempt > 1) resume.put(base, new long[]{nextHash, attempt + 1});
+                return id;
+            }
+            hash = nextHash;
+        }
+    }
+
+    static long hash(String name, PersonInfo p) {
+        return hash(name, p, FNV_OFFSET, FNV_PRIME);
+    }
+
+    /**
+     * Хеш с заданными начальным значением и множителем FNV; другие параметры
+     * дают второй, независимый от первого хеш (см. {@link FragmentDeduplicator}).
+     */
+    static long hash(String name, PersonInfo p, long basis, long prime) {
+        Hasher h = new Hasher(basis, prime);
+        h.add(name);
+        h.add(p.firstName);
+        h.add(p.lastName);
+        h.add(p.gender);
+        h.add(p.spouseId);
+        h.add(p.spouseName);
+        h.add(p.motherName);
+        h.add(p.fatherName);
+        h.add(p.parents);
+        h.add(p.children);
+        h.add(p.siblings);
+        h.add(p.childrenCountMarker);
+        h.add(p.siblingsCountMarker);
+        h.add(p.unresolvedChildNames);
+        h.add(p.unresolvedSiblingNames);
+        return mix(h.value);
+    }
+
+    private static final class Hasher {
+        private final long prime;
+        long value;
+
+        Hasher(long basis, long prime) {
+            this.value = basis;
+            this.prime = prime;
+        }
+
+        /** Строка и разделитель; null отличается от пустой строки. */
+        void add(String s) {
+            if (s == null) {
+                step(0xFFFF);
+                return;
+            }
+            for (int i = 0; i < s.length(); i++) step(s.charAt(i));
+            step(0);
+            step(0);
+        }
+
+        void add(Integer value) {
+            if (value == null) {
+                step(0xFFFF);
+                return;
+            }
+            int v = value;
+            step(v >>> 16);
+            step(v & 0xFFFF);
+        }
+
+        /**
+         * ID в порядке строк, а не номеров в таблице ID: номера зависят от
+         * порядка интернирования, который с --parallel меняется от запуска к запуску.
+         */
+        void add(IdSet ids) {
+            for (int index : ids.idOrder()) add(ids.table().idOf(index));
+            step(0xFFFE);
+        }
+
+        /** Множество имён в отсортированном виде: порядок обхода HashSet не важен. */
+        void add(Set<String> names) {
+            if (names == null) {
+                step(0xFFFF);
+                return;
+            }
+            List<String> sorted = new ArrayList<>(names);
+            Collections.sort(sorted);
+            for (String s : sorted) add(s);
+            step(0xFFFE);
+        }
+
+        private void step(int c) {
+            value = (value ^ (c & 0xFF)) * prime;
+            value = (value ^ (c >>> 8)) * prime;
+        }
+    }
+
+    /** Финальное перемешивание murmur3 (fmix64). */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static String format(long hash) {
+        char[] chars = new char[PREFIX.length() + 16];
+        PREFIX.getChars(0, PREFIX.length(), chars, 0);
+        for (int i = chars.length - 1; i >= PREFIX.length(); i--) {
+            chars[i] = HEX[(int) (hash & 0xF)];
+            hash >>>= 4;
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,76 @@
+package ru.nsu.chernikov;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * В пакетном режиме с --report у каждого файла свой отчёт: этапы, счётчики и
+ * предупреждения одного файла не смешиваются с другими, в том числе
+ * предупреждения из потоков пула параллельных этапов.
+ */
+class BatchRunnerTest {
+
+    // Больше ParallelStages.MIN_RANGE, чтобы разрешение имён шло в пуле
+    private static final int LARGE = 1500;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void eachFileGetsItsOwnReport() throws Exception {
+        Path in = Files.createDirectories(dir.resolve("in"));
+        File out = Files.createDirectories(dir.resolve("out")).toFile();
+        StringBuilder large = new StringBuilder("<people>");
+        for (int i = 0; i < LARGE; i++) {
+            large.append("<person id=\"L").append(i).append("\"><firstname>A").append(i)
+                    .append("</firstname><surname>B</surname><daughter>Nobody Zzz</daughter></person>");
+        }
+        Files.write(in.resolve("large.xml"), large.append("</people>").toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(in.resolve("small.xml"), ("<people><person id=\"S1\"><firstname>C</firstname></person>"
+                + "<person id=\"S2\"><firstname>D</firstname></person></people>").getBytes(StandardCharsets.UTF_8));
+
+        Map<String, String> options = new HashMap<>();
+        options.put("stream-output", "");
+        options.put("parallel", "4");
+        options.put("report", dir.resolve("process.json").toString());
+        RunReport.reset();
+        BatchRunner runner = new BatchRunner(options, "person.xsd", out, 2);
+        runner.run(BatchRunner.listInputs(in.toFile()));
+        assertEquals(2, runner.processed());
+
+        String largeReport = read(new File(out, "large.xml.report.json"));
+        String smallReport = read(new File(out, "small.xml.report.json"));
+        assertTrue(largeReport.contains("\"persons\": " + LARGE + "\n"), largeReport);
+        assertTrue(largeReport.contains("\"unresolved_child\": {\"count\": " + LARGE), largeReport);
+        assertTrue(largeReport.contains("\"status\": \"ok\""), largeReport);
+        assertTrue(smallReport.contains("\"persons\": 2\n"), smallReport);
+        assertTrue(smallReport.contains("\"unresolved_child\": {\"count\": 0,"), smallReport);
+        assertTrue(smallReport.contains("\"name\": \"parse\""), smallReport);
+
+        // В отчёте процесса – сумма, а этапы и примеры помечены файлом
+        File process = dir.resolve("process.json").toFile();
+        RunReport.writeJson(process, new HashMap<>());
+        String total = read(process);
+        assertTrue(total.contains("\"persons\": " + (LARGE + 2) + "\n"), total);
+        assertTrue(total.contains("\"input\": " + quoted(in.resolve("small.xml"))), total);
+        assertTrue(total.contains("[\"" + in.resolve("large.xml") + ": "), total);
+        assertEquals(4, out.list().length);
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static String quoted(Path path) {
+        return "\"" + path.toString().replace("\\", "\\\\") + "\"";
+    }
+}
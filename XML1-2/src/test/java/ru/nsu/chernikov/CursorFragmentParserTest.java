@@ -0,0 +1,115 @@
+package ru.nsu.chernikov;
+
+import org.junit.jupiter.api.Test;
+import ru.nsu.chernikov.PersonDataAggregator.ParserEngine;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Курсорный и событийный разбор одних и тех же документов дают одинаковые
+ * списки фрагментов: те же поля, в том же порядке.
+ */
+class CursorFragmentParserTest {
+
+    private static final String ATTRIBUTES = "<people>"
+            + "<person id=\"P1\" name=\"Ivan Petrov\">"
+            + "<gender value=\"M\"/>"
+            + "<spouce value=\"P2\"/>"
+            + "<children count=\"2\"/>"
+            + "<child ref=\"P3\"/><son id=\"P4\"/>"
+            + "<siblings val=\"P5  P6\"/>"
+            + "<siblings-number value=\"2\"/>"
+            + "<parent value=\"UNKNOWN\"/>"
+            + "</person>"
+            + "</people>";
+
+    private static final String CHILD_ELEMENTS = "<people>"
+            + "<person><id>P1</id>"
+            + "<fullname><first>Ivan</first><family>Petrov</family></fullname>"
+            + "<gender>male</gender>"
+            + "<wife>Anna Petrova</wife>"
+            + "<mother>Olga Petrova</mother><father>Pavel Petrov</father>"
+            + "<daughter>Maria Petrova</daughter><brother>Oleg Petrov</brother>"
+            + "<parent>P7</parent><parent>some text</parent>"
+            + "</person>"
+            + "<person><firstName>Anna</firstName><lastName>Petrova</lastName>"
+            + "<husband>P1</husband><sister>NONE</sister></person>"
+            + "</people>";
+
+    private static final String WHITESPACE = "<?xml version=\"1.0\"?>\n"
+            + "<people>\n"
+            + "  <person id=\"P1\">\n"
+            + "    <firstname>\n      Ivan\n    </firstname>\n"
+            + "    <surname>  Petrov  </surname>\n"
+            + "    <fullname>\n      <first> Ivan </first>\n      <family>\tPetrov\t</family>\n    </fullname>\n"
+            + "    <child>   </child>\n"
+            + "    <gender>  F  </gender>\n"
+            + "  </person>\n"
+            + "  <person>\n    <id> P2 </id>\n  </person>\n"
+            + "</people>\n";
+
+    private static final String MALFORMED_ID = "<people>"
+            + "<person id=\"1bad\"><firstname>A</firstname></person>"
+            + "<person id=\"\"><firstname>B</firstname></person>"
+            + "<person><id>not an id</id><spouce>1bad</spouce></person>"
+            + "</people>";
+
+    @Test
+    void attributesParseTheSame() throws Exception {
+        assertSameFragments(ATTRIBUTES, 1);
+    }
+
+    @Test
+    void childElementsParseTheSame() throws Exception {
+        assertSameFragments(CHILD_ELEMENTS, 2);
+    }
+
+    @Test
+    void whitespaceIsTrimmedTheSame() throws Exception {
+        assertSameFragments(WHITESPACE, 2);
+    }
+
+    @Test
+    void malformedIdsAreKeptTheSame() throws Exception {
+        assertSameFragments(MALFORMED_ID, 3);
+    }
+
+    @Test
+    void documentWithoutPersonsGivesNoFragments() throws Exception {
+        assertSameFragments("<people/>", 0);
+        assertSameFragments("<?xml version=\"1.0\"?><people>\n</people>", 0);
+    }
+
+    @Test
+    void emptyInputFailsInBothEngines() {
+        assertThrows(XMLStreamException.class, () -> parse("", ParserEngine.EVENT));
+        assertThrows(XMLStreamException.class, () -> parse("", ParserEngine.CURSOR));
+    }
+
+    @Test
+    void unquotedIdFailsInBothEngines() {
+        String xml = "<people><person id=1bad><firstname>A</firstname></person></people>";
+        assertThrows(XMLStreamException.class, () -> parse(xml, ParserEngine.EVENT));
+        assertThrows(XMLStreamException.class, () -> parse(xml, ParserEngine.CURSOR));
+    }
+
+    private static void assertSameFragments(String xml, int expectedCount) throws Exception {
+        List<String> event = parse(xml, ParserEngine.EVENT);
+        List<String> cursor = parse(xml, ParserEngine.CURSOR);
+        assertEquals(expectedCount, event.size());
+        assertEquals(event, cursor);
+    }
+
+    private static List<String> parse(String xml, ParserEngine engine) throws XMLStreamException {
+        List<String> fragments = new ArrayList<>();
+        PersonDataAggregator.parseFragments(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                null, engine, new IdTable(), p -> fragments.add(TestPersons.describe(p)));
+        return fragments;
+    }
+}
@@ -0,0 +1,68 @@
+package ru.nsu.chernikov;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdSetTest {
+
+    @Test
+    void idOrderDoesNotDependOnInternOrder() {
+        // ID интернируются в обратном порядке, как при неудачном планировании потоков
+        List<String> expected = new ArrayList<>();
+        IdTable table = new IdTable();
+        for (int i = 40; i >= 0; i--) table.intern("idset-test-" + (char) ('a' + i % 26) + i);
+        IdSet small = new IdSet(table);
+        IdSet large = new IdSet(table);
+        for (int i = 0; i <= 40; i++) {
+            String id = "idset-test-" + (char) ('a' + i % 26) + i;
+            expected.add(id);
+            if (i < 5) small.add(id);
+            large.add(id);
+        }
+        expected.sort(null);
+
+        assertEquals(sorted(expected, small), ids(small));
+        assertEquals(expected, ids(large));
+    }
+
+    @Test
+    void emptySetHasEmptyOrder() {
+        assertEquals(0, new IdSet(new IdTable()).idOrder().length);
+    }
+
+    @Test
+    void tablesAreIndependent() {
+        // Номера в разных таблицах совпадают, поэтому смешивать множества нельзя
+        IdTable first = new IdTable();
+        IdTable second = new IdTable();
+        first.intern("idset-test-a");
+        IdSet a = new IdSet(first);
+        IdSet b = new IdSet(second);
+        a.add("idset-test-b");
+        b.add("idset-test-c");
+
+        assertEquals(List.of("idset-test-b"), ids(a));
+        assertEquals(List.of("idset-test-c"), ids(b));
+        assertEquals(-1, second.indexOf("idset-test-b"));
+        assertFalse(b.contains("idset-test-b"));
+        assertThrows(IllegalArgumentException.class, () -> a.addAll(b));
+    }
+
+    private static List<String> sorted(List<String> all, IdSet subset) {
+        List<String> result = new ArrayList<>();
+        for (String id : all) {
+            if (subset.contains(id)) result.add(id);
+        }
+        return result;
+    }
+
+    private static List<String> ids(IdSet set) {
+        List<String> ids = new ArrayList<>();
+        for (int index : set.idOrder()) ids.add(set.table().idOf(index));
+        return ids;
+    }
+}
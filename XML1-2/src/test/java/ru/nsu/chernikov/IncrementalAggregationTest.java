@@ -0,0 +1,103 @@
+package ru.nsu.chernikov;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.nsu.chernikov.PersonDataAggregator.ParserEngine;
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Снимок и дельты дают тот же результат, что и полный запуск по всем
+ * файлам подряд.
+ */
+class IncrementalAggregationTest {
+
+    // Фрагменты без ID с именем, которого ещё нет ни у кого, и ссылки на это имя
+    private static final String FIRST = "<people>"
+            + "<person name=\"Ivan Petrov\"><gender>M</gender><son>Oleg Petrov</son></person>"
+            + "<person id=\"P2\"><firstname>Anna</firstname><surname>Petrova</surname>"
+            + "<husband>Ivan Petrov</husband><children-number value=\"1\"/></person>"
+            + "<person><gender>F</gender></person>"
+            + "</people>";
+
+    // Человек с ID и тем же именем, ещё один фрагмент без ID и ребёнок, на которого ссылались по имени
+    private static final String SECOND = "<people>"
+            + "<person id=\"P1\"><firstname>Ivan</firstname><surname>Petrov</surname></person>"
+            + "<person name=\"Ivan Petrov\"><spouce>P2</spouce></person>"
+            + "<person id=\"P3\" name=\"Oleg Petrov\"><gender>M</gender></person>"
+            + "<person><gender>F</gender></person>"
+            + "</people>";
+
+    private static final String THIRD = "<people>"
+            + "<person name=\"Maria Petrova\"><brother>Oleg Petrov</brother></person>"
+            + "<person id=\"P2\"><daughter>Maria Petrova</daughter></person>"
+            + "</people>";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void snapshotAndDeltasMatchFullRun() throws Exception {
+        List<String> inputs = Arrays.asList(write("a.xml", FIRST), write("b.xml", SECOND), write("c.xml", THIRD));
+        File snapshot = dir.resolve("state.bin").toFile();
+
+        Map<String, PersonInfo> incremental = null;
+        for (String input : inputs) {
+            // Каждая дельта – отдельный запуск со своей таблицей ID
+            NameIndex nameIndex = new NameIndex();
+            incremental = PersonDataAggregator.aggregateIncrementally(snapshot, Collections.singletonList(input),
+                    new HashMap<>(), ParserEngine.EVENT, new IdTable(), nameIndex);
+            resolveAndValidate(incremental, nameIndex);
+        }
+
+        List<PersonInfo> fragments = new ArrayList<>();
+        IdTable ids = new IdTable();
+        for (String input : inputs) fragments.addAll(PersonDataAggregator.parseInput(input, ids));
+        NameIndex nameIndex = new NameIndex();
+        Map<String, PersonInfo> full = PersonDataAggregator.mergeFragments(fragments, nameIndex);
+        resolveAndValidate(full, nameIndex);
+
+        assertEquals(TestPersons.describe(full), TestPersons.describe(incremental));
+        // Фрагменты «Ivan Petrov» из первой дельты ушли к P1, а не остались отдельным человеком
+        assertEquals(6, full.size());
+        assertEquals("P1", full.get("P2").spouseId);
+        assertTrue(full.get("P1").children.contains("P3"));
+    }
+
+    @Test
+    void severalFilesInOneRunMatchFullRun() throws Exception {
+        List<String> inputs = Arrays.asList(write("a.xml", FIRST), write("b.xml", SECOND));
+        NameIndex incrementalIndex = new NameIndex();
+        Map<String, PersonInfo> incremental = PersonDataAggregator.aggregateIncrementally(
+                dir.resolve("state.bin").toFile(), inputs, new HashMap<>(), ParserEngine.EVENT, new IdTable(),
+                incrementalIndex);
+        resolveAndValidate(incremental, incrementalIndex);
+
+        List<PersonInfo> fragments = new ArrayList<>();
+        IdTable ids = new IdTable();
+        for (String input : inputs) fragments.addAll(PersonDataAggregator.parseInput(input, ids));
+        NameIndex nameIndex = new NameIndex();
+        Map<String, PersonInfo> full = PersonDataAggregator.mergeFragments(fragments, nameIndex);
+        resolveAndValidate(full, nameIndex);
+
+        assertEquals(TestPersons.describe(full), TestPersons.describe(incremental));
+    }
+
+    private static void resolveAndValidate(Map<String, PersonInfo> persons, NameIndex nameIndex) {
+        PersonDataAggregator.resolveNameReferences(persons, nameIndex);
+        PersonDataAggregator.validate(persons);
+    }
+
+    private String write(String name, String xml) throws Exception {
+        Path file = dir.resolve(name);
+        Files.write(file, xml.getBytes(StandardCharsets.UTF_8));
+        return file.toString();
+    }
+}
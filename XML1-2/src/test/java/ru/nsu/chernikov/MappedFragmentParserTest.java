@@ -0,0 +1,176 @@
+package ru.nsu.chernikov;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.nsu.chernikov.PersonDataAggregator.ParserEngine;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Разбор отображённого файла даёт те же фрагменты, что и событийный разбор
+ * через StAX. Для файлов, которые быстрый разбор не поддерживает, он
+ * отказывается до первого фрагмента, и результат всё равно тот же.
+ */
+class MappedFragmentParserTest {
+
+    private static final String BOM_AND_CRLF = "﻿<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+            + "<people>\r\n"
+            + "  <person id=\"P1\">\r\n"
+            + "    <firstname>\r\n      Ivan\r\n    </firstname>\r\n"
+            + "    <siblings val=\"P5\r\nP6\"/>\r\n"
+            + "    <gender value=\"M\"/>\r\n"
+            + "  </person>\r\n"
+            + "  <person>\r\n    <id>P2</id>\r\n    <husband>P1</husband>\r\n  </person>\r\n"
+            + "</people>\r\n";
+
+    private static final String REFERENCES = "<people>"
+            + "<person id=\"P1\" name=\"A&amp;B &#x41;&#66;\">"
+            + "<firstname>Tom &amp; Jerry</firstname>"
+            + "<surname>&lt;O&apos;Neil&gt; &quot;x&quot;</surname>"
+            + "</person>"
+            + "<person id=\"P2\"><firstname>&#1048;&#x432;&#x430;&#x43D;</firstname>"
+            + "<surname>&#x1F600;&#128512;</surname></person>"
+            + "</people>";
+
+    private static final String MARKUP = "<?xml version=\"1.0\"?>"
+            + "<!-- <person id=\"X1\"> в комментарии -->"
+            + "<people>"
+            + "<?note <person id=\"X2\"?>"
+            + "<person id=\"P1\">"
+            + "<firstname><![CDATA[<b>Ivan</b> & co]]></firstname>"
+            + "<surname>Pet<!-- c -->rov</surname>"
+            + "<?pi ?>"
+            + "<child><![CDATA[P2]]></child>"
+            + "</person>"
+            + "<!-- <person id=\"X3\"></person> -->"
+            + "<person><id>P2</id><firstname>Anna<?pi?></firstname></person>"
+            + "</people>";
+
+    private static final String NESTED = "<people>"
+            + "<person id=\"P1\"><firstname>A</firstname>"
+            + "<children><person id=\"P2\"><firstname>B</firstname></person></children>"
+            + "<person><id>P3</id></person>"
+            + "</person>"
+            + "<person id=\"P4\"/>"
+            + "</people>";
+
+    private static final String MULTIBYTE = "<people>"
+            + "<person id=\"P1\"><firstname>Иван</firstname><surname>山田</surname></person>"
+            + "<person id=\"P2\" name=\"𝄞 Clef\"><firstname>😀</firstname>"
+            + "<surname>a𐀀b</surname></person>"
+            + "</people>";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void bomAndCrlfParseTheSame() throws Exception {
+        assertMappedSame(write("bom.xml", BOM_AND_CRLF.getBytes(StandardCharsets.UTF_8)), 2);
+    }
+
+    @Test
+    void entitiesAndCharacterReferencesParseTheSame() throws Exception {
+        assertMappedSame(write("refs.xml", REFERENCES.getBytes(StandardCharsets.UTF_8)), 2);
+    }
+
+    @Test
+    void cdataCommentsAndInstructionsParseTheSame() throws Exception {
+        assertMappedSame(write("markup.xml", MARKUP.getBytes(StandardCharsets.UTF_8)), 2);
+    }
+
+    @Test
+    void nestedPersonsParseTheSame() throws Exception {
+        assertMappedSame(write("nested.xml", NESTED.getBytes(StandardCharsets.UTF_8)), -1);
+    }
+
+    @Test
+    void multibyteUtf8ParsesTheSame() throws Exception {
+        assertMappedSame(write("multibyte.xml", MULTIBYTE.getBytes(StandardCharsets.UTF_8)), 2);
+    }
+
+    @Test
+    void gzipFallsBackToStax() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(MULTIBYTE.getBytes(StandardCharsets.UTF_8));
+        }
+        String file = write("people.xml.gz", bytes.toByteArray());
+        assertEquals(TestPersons.parse(file, ParserEngine.EVENT), TestPersons.parse(file, ParserEngine.MAPPED));
+        assertEquals(2, TestPersons.parse(file, ParserEngine.MAPPED).size());
+    }
+
+    @Test
+    void doctypeFallsBackToStax() throws Exception {
+        String xml = "<?xml version=\"1.0\"?>"
+                + "<!DOCTYPE people [<!ENTITY fam \"Petrov\">]>"
+                + "<people><person id=\"P1\"><firstname>Ivan</firstname><surname>&fam;</surname></person></people>";
+        assertFallsBack(write("doctype.xml", xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void otherEncodingsFallBackToStax() throws Exception {
+        String cp1251 = "<?xml version=\"1.0\" encoding=\"windows-1251\"?>"
+                + "<people><person id=\"P1\"><firstname>Иван</firstname><surname>Петров</surname></person></people>";
+        assertFallsBack(write("cp1251.xml", cp1251.getBytes(Charset.forName("windows-1251"))));
+
+        String latin1 = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>"
+                + "<people><person id=\"P1\"><firstname>René</firstname></person></people>";
+        assertFallsBack(write("latin1.xml", latin1.getBytes(StandardCharsets.ISO_8859_1)));
+
+        String utf16 = "﻿<?xml version=\"1.0\" encoding=\"UTF-16\"?>" + MULTIBYTE;
+        assertFallsBack(write("utf16.xml", utf16.getBytes(StandardCharsets.UTF_16LE)));
+    }
+
+    @Test
+    void malformedInputFailsInBothEngines() throws Exception {
+        String[] documents = {
+                "<people><person id=\"P1\"><firstname>A</lastname></person></people>",
+                "<people><person id=\"P1\"><firstname>A</firstname></person>",
+                "<people><person id=\"P1\"><firstname>A &bogus; B</firstname></person></people>",
+                "<people><person id=1bad/></people>",
+        };
+        for (int i = 0; i < documents.length; i++) {
+            String file = write("bad" + i + ".xml", documents[i].getBytes(StandardCharsets.UTF_8));
+            assertThrows(XMLStreamException.class, () -> TestPersons.parse(file, ParserEngine.EVENT));
+            assertThrows(XMLStreamException.class, () -> TestPersons.parse(file, ParserEngine.MAPPED));
+        }
+    }
+
+    /** Быстрый разбор принимает файл и выдаёт то же, что событийный; expectedCount < 0 – не проверять. */
+    private static void assertMappedSame(String file, int expectedCount) throws Exception {
+        List<String> mapped = new ArrayList<>();
+        assertTrue(MappedFragmentParser.parse(new File(file), new IdTable(), p -> mapped.add(TestPersons.describe(p))));
+        List<String> event = TestPersons.parse(file, ParserEngine.EVENT);
+        if (expectedCount >= 0) assertEquals(expectedCount, event.size());
+        assertEquals(event, mapped);
+        assertEquals(event, TestPersons.parse(file, ParserEngine.MAPPED));
+    }
+
+    /** Быстрый разбор отказывается, ничего не выдав, а MAPPED всё равно совпадает с EVENT. */
+    private static void assertFallsBack(String file) throws Exception {
+        List<String> mapped = new ArrayList<>();
+        assertFalse(MappedFragmentParser.parse(new File(file), new IdTable(), p -> mapped.add(TestPersons.describe(p))));
+        assertEquals(List.of(), mapped);
+        List<String> event = TestPersons.parse(file, ParserEngine.EVENT);
+        assertFalse(event.isEmpty());
+        assertEquals(event, TestPersons.parse(file, ParserEngine.MAPPED));
+    }
+
+    private String write(String name, byte[] content) throws Exception {
+        Path file = dir.resolve(name);
+        Files.write(file, content);
+        return file.toString();
+    }
+}
@@ -0,0 +1,115 @@
+package ru.nsu.chernikov;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.nsu.chernikov.PersonDataAggregator.ParserEngine;
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Файл режется только перед &lt;person&gt; верхнего уровня: «&lt;person» в
+ * комментариях, CDATA, инструкциях обработки и значениях атрибутов, а также
+ * вложенные &lt;person&gt; границами не становятся. Параллельный разбор при
+ * любом числе кусков даёт те же фрагменты в том же порядке, что и обычный.
+ */
+class ParallelFragmentParserTest {
+
+    private static final int PERSONS = 60;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void boundariesSkipMarkupThatLooksLikePerson() throws Exception {
+        File file = new File(writeTrickyDocument());
+        // При куске в 1 байт граница ставится перед каждым человеком верхнего уровня;
+        // первый кусок – пробелы и комментарий между корневым тегом и первым человеком
+        ParallelFragmentParser.ChunkLayout layout = ParallelFragmentParser.ChunkLayout.scan(file, 1);
+        assertNotNull(layout);
+        assertEquals(PERSONS + 1, layout.boundaries.length - 1);
+        assertEquals("people", layout.rootName);
+
+        // Смещения в байтах, а в файле есть кириллица – сравниваются байты
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        for (int i = 1; i + 1 < layout.boundaries.length; i++) {
+            String head = new String(bytes, (int) layout.boundaries[i], 13, StandardCharsets.UTF_8);
+            assertEquals("<person id=\"P", head, "граница " + i + " не перед <person> верхнего уровня");
+        }
+    }
+
+    @Test
+    void parallelParseMatchesSequentialForAnyChunkCount() throws Exception {
+        String file = writeTrickyDocument();
+        List<String> sequential = TestPersons.parse(file, ParserEngine.EVENT);
+        assertEquals(PERSONS, sequential.size());
+
+        for (long chunkBytes : new long[]{1, 150, 700, 4000, Long.MAX_VALUE / 2}) {
+            for (ParserEngine engine : ParserEngine.values()) {
+                List<String> parallel = new ArrayList<>();
+                for (PersonInfo p : new ParallelFragmentParser(4, engine, chunkBytes).parse(file, new IdTable())) {
+                    parallel.add(TestPersons.describe(p));
+                }
+                assertEquals(sequential, parallel, engine + ", кусок " + chunkBytes + " байт");
+            }
+        }
+    }
+
+    @Test
+    void doctypeIsParsedSequentially() throws Exception {
+        Path file = dir.resolve("doctype.xml");
+        Files.write(file, ("<!DOCTYPE people [<!ENTITY fam \"Petrov\">]><people>"
+                + "<person id=\"P1\"><surname>&fam;</surname></person>"
+                + "<person id=\"P2\"><surname>&fam;</surname></person>"
+                + "</people>").getBytes(StandardCharsets.UTF_8));
+        assertNull(ParallelFragmentParser.ChunkLayout.scan(file.toFile(), 1));
+
+        List<String> parallel = new ArrayList<>();
+        for (PersonInfo p : new ParallelFragmentParser(4, ParserEngine.EVENT, 1).parse(file.toString(), new IdTable())) {
+            parallel.add(TestPersons.describe(p));
+        }
+        assertEquals(TestPersons.parse(file.toString(), ParserEngine.EVENT), parallel);
+    }
+
+    /** Люди вперемешку со всем, что содержит «&lt;person», но не является началом человека. */
+    private String writeTrickyDocument() throws Exception {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<!-- <person id=\"X0\"> до корня -->\n")
+                .append("<people xmlns:x=\"urn:x\" note=\"&lt;person&gt;\">\n");
+        for (int i = 0; i < PERSONS; i++) {
+            switch (i % 5) {
+                case 0:
+                    xml.append("  <!-- <person id=\"C").append(i).append("\"><firstname>Ghost</firstname></person> -->\n");
+                    break;
+                case 1:
+                    xml.append("  <?note <person id=\"E").append(i).append("\"?>\n");
+                    break;
+                case 2:
+                    xml.append("  <![CDATA[ <person id=\"D").append(i).append("\"> ]]>\n");
+                    break;
+                default:
+                    break;
+            }
+            xml.append("  <person id=\"P").append(i).append("\" x:note=\"a > b\">\n")
+                    .append("    <firstname><![CDATA[</person><person id=\"F").append(i).append("\">]]></firstname>\n")
+                    .append("    <surname>Петров<!-- </person> -->").append(i).append("</surname>\n");
+            if (i % 3 == 0) {
+                xml.append("    <children><person id=\"N").append(i).append("\"><firstname>Вложенный</firstname></person></children>\n");
+            }
+            if (i > 0) xml.append("    <sibling>P").append(i - 1).append("</sibling>\n");
+            xml.append("    <?pi </person>?>\n")
+                    .append("  </person>\n");
+        }
+        xml.append("</people>\n");
+        Path file = dir.resolve("tricky.xml");
+        Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+        return file.toString();
+    }
+}
@@ -0,0 +1,82 @@
+package ru.nsu.chernikov;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.SAXException;
+import ru.nsu.chernikov.PersonDataAggregator.ParserEngine;
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import javax.xml.stream.XMLStreamException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ошибка на любом этапе конвейера завершает запуск, а не оставляет
+ * поставщика ждать места в заполненной очереди.
+ */
+class PipelinedAggregationTest {
+
+    private static final int PERSONS = 20_000;
+    private static final Duration LIMIT = Duration.ofSeconds(30);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writerFailureNearTheStartDoesNotHang() throws Exception {
+        // Неверный ID первым: запись падает на проверке схемы, пока поставщик ждёт места в очереди
+        IdTable ids = new IdTable();
+        Map<String, PersonInfo> persons = new LinkedHashMap<>();
+        persons.put("1bad", person("1bad", ids));
+        for (int i = 0; i < PERSONS; i++) persons.put("P" + i, person("P" + i, ids));
+        PipelinedAggregation pipeline = new PipelinedAggregation(1, false);
+        String output = dir.resolve("out.xml").toString();
+
+        Exception e = assertTimeoutPreemptively(LIMIT, () -> assertThrows(Exception.class,
+                () -> pipeline.resolveAndWrite(persons, ids, new NameIndex(), output,
+                        PersonDataAggregator.loadSchema("person.xsd"))));
+        assertTrue(e instanceof SAXException || e.getCause() instanceof SAXException, e.toString());
+    }
+
+    @Test
+    void parserFailureNearTheStartIsReported() throws Exception {
+        StringBuilder xml = new StringBuilder("<people><person id=\"P0\"></persn>");
+        for (int i = 1; i < PERSONS; i++) xml.append("<person id=\"P").append(i).append("\"/>");
+        xml.append("</people>");
+        Path input = dir.resolve("in.xml");
+        Files.write(input, xml.toString().getBytes(StandardCharsets.UTF_8));
+        PipelinedAggregation pipeline = new PipelinedAggregation(1, false);
+
+        assertTimeoutPreemptively(LIMIT, () -> assertThrows(XMLStreamException.class,
+                () -> pipeline.merge(input.toString(), ParserEngine.EVENT, new IdTable(), new NameIndex())));
+    }
+
+    @Test
+    void validInputPassesThroughTheQueues() throws Exception {
+        StringBuilder xml = new StringBuilder("<people>");
+        for (int i = 0; i < PERSONS; i++) {
+            xml.append("<person id=\"P").append(i).append("\"><firstname>N").append(i).append("</firstname></person>");
+        }
+        xml.append("</people>");
+        Path input = dir.resolve("in.xml");
+        Files.write(input, xml.toString().getBytes(StandardCharsets.UTF_8));
+        PipelinedAggregation pipeline = new PipelinedAggregation(1, false);
+
+        Map<String, PersonInfo> persons = assertTimeoutPreemptively(LIMIT,
+                () -> pipeline.merge(input.toString(), ParserEngine.EVENT, new IdTable(), new NameIndex()));
+        assertEquals(PERSONS, persons.size());
+    }
+
+    private static PersonInfo person(String id, IdTable ids) {
+        PersonInfo p = new PersonInfo(ids);
+        p.id = id;
+        p.firstName = "N" + id;
+        return p;
+    }
+}
@@ -0,0 +1,49 @@
+package ru.nsu.chernikov;
+
+import org.junit.jupiter.api.Test;
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyntheticIdsTest {
+
+    @Test
+    void idDoesNotDependOnInternOrder() {
+        // ID детей интернируются в обратном порядке, как при неудачном планировании потоков
+        IdTable table = new IdTable();
+        for (int i = 9; i >= 0; i--) table.intern("synthetic-test-child" + i);
+        PersonInfo p = new PersonInfo(table);
+        p.firstName = "Ivan";
+        p.lastName = "Petrov";
+        for (int i = 0; i < 10; i++) p.children.add("synthetic-test-child" + i);
+
+        // Значение закреплено: тот же вход должен давать тот же ID в любом запуске
+        assertEquals("gen_34adb924da66443b", new SyntheticIds(id -> false).next("ivan petrov", p));
+    }
+
+    @Test
+    void takenIdsAreSkippedDeterministically() {
+        PersonInfo p = new PersonInfo(new IdTable());
+        HashSet<String> taken = new HashSet<>();
+        SyntheticIds ids = new SyntheticIds(taken::contains);
+        String first = ids.next(null, p);
+        taken.add(first);
+        String second = ids.next(null, p);
+        taken.add(second);
+        String third = ids.next(null, p);
+
+        assertNotEquals(first, second);
+        assertNotEquals(second, third);
+        assertNotEquals(first, third);
+
+        HashSet<String> takenAgain = new HashSet<>();
+        SyntheticIds again = new SyntheticIds(takenAgain::contains);
+        for (String expected : new String[]{first, second, third}) {
+            String id = again.next(null, p);
+            assertEquals(expected, id);
+            takenAgain.add(id);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package ru.nsu.chernikov;
+
+import ru.nsu.chernikov.PersonDataAggregator.ParserEngine;
+import ru.nsu.chernikov.PersonDataAggregator.PersonInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Текстовое описание фрагментов и людей для сравнения в тестах. */
+final class TestPersons {
+
+    private TestPersons() {
+    }
+
+    /** Все поля одной строкой; множества – в отсортированном виде. */
+    static String describe(PersonInfo p) {
+        return "id=" + p.id
+                + " first=" + p.firstName
+                + " last=" + p.lastName
+                + " gender=" + p.gender
+                + " spouseId=" + p.spouseId
+                + " spouseName=" + p.spouseName
+                + " mother=" + p.motherName
+                + " father=" + p.fatherName
+                + " parents=" + ids(p.parents)
+                + " children=" + ids(p.children)
+                + " siblings=" + ids(p.siblings)
+                + " childrenMarker=" + p.childrenCountMarker
+                + " siblingsMarker=" + p.siblingsCountMarker
+                + " childNames=" + (p.unresolvedChildNames == null ? null : new TreeSet<>(p.unresolvedChildNames))
+                + " siblingNames=" + (p.unresolvedSiblingNames == null ? null : new TreeSet<>(p.unresolvedSiblingNames))
+                + " parentNames=" + (p.unresolvedParentNames == null ? null : new TreeSet<>(p.unresolvedParentNames));
+    }
+
+    /** Люди по ID в порядке ID – порядок обхода HashMap не важен. */
+    static Map<String, String> describe(Map<String, PersonInfo> persons) {
+        Map<String, String> described = new TreeMap<>();
+        for (PersonInfo p : persons.values()) described.put(p.id, describe(p));
+        return described;
+    }
+
+    /** Фрагменты файла, разобранного движком engine, в порядке выдачи. */
+    static List<String> parse(String file, ParserEngine engine) throws Exception {
+        List<String> fragments = new ArrayList<>();
+        PersonDataAggregator.parseInput(file, engine, new IdTable(), p -> fragments.add(describe(p)));
+        return fragments;
+    }
+
+    static TreeSet<String> ids(IdSet set) {
+        TreeSet<String> ids = new TreeSet<>();
+        for (int i = 0; i < set.size(); i++) ids.add(set.table().idOf(set.get(i)));
+        return ids;
+    }
+}